@@ -0,0 +1,142 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Remembers the digest without debug information of the loaded classes, so a
+ * changed class differing from the loaded one only in its debug information
+ * is not redefined. Redefining a class deoptimizes its compiled methods, which
+ * is a waste when only line numbers changed. The digests of the classes loaded
+ * from the watched folders and jars are recorded when they are loaded, and
+ * updated when they are redefined. While the classes loaded with the same name
+ * do not have the same digest, their changes are always redefined.
+ *
+ * @see ClassFileDigest
+ */
+class ClassDigests implements ClassFileTransformer {
+
+    /** Marks a class name loaded with different digests */
+    private static final byte[] CONFLICT = new byte[0];
+
+    private final HashMap<String, byte[]> digests = new HashMap<String, byte[]>();
+    private volatile boolean enabled;
+    private volatile List<File> sources = Collections.emptyList();
+    private int skipped;
+
+    /**
+     * Enables or disables the recording of digests. When disabled, the digests
+     * recorded so far are forgotten.
+     *
+     * @param enabled
+     *          true to skip changes of debug information only
+     * @param sources
+     *          the watched folders and jars, whose classes are recorded when
+     *          they are loaded
+     */
+    synchronized void configure(boolean enabled, List<File> sources) {
+        this.enabled = enabled;
+        this.sources = sources;
+        if (!enabled) {
+            digests.clear();
+        }
+    }
+
+    /**
+     * Tells if a changed class differs from the loaded one only in its debug
+     * information, counting it as skipped. Otherwise the digest of the changed
+     * class is recorded, as it is about to be redefined.
+     *
+     * @param className
+     *          the fully qualified class name
+     * @param classBytes
+     *          the changed class
+     * @return true if the redefinition can be skipped
+     */
+    synchronized boolean isDebugOnlyChange(String className, byte[] classBytes) {
+        if (!enabled) {
+            return false;
+        }
+
+        byte[] digest = ClassFileDigest.digest(classBytes);
+        byte[] loaded = digests.get(className);
+        if (digest != null && loaded != null && Arrays.equals(digest, loaded)) {
+            skipped++;
+            return true;
+        }
+
+        digests.put(className, (digest == null) ? CONFLICT : digest);
+        return false;
+    }
+
+    /**
+     * Forgets the digest of a class until its next redefinition, for example
+     * because the redefinition failed or left out some of the loaded classes
+     *
+     * @param className
+     *          the fully qualified class name
+     */
+    synchronized void invalidate(String className) {
+        if (enabled) {
+            digests.put(className, CONFLICT);
+        }
+    }
+
+    /**
+     * Gets the number of redefinitions skipped so far
+     */
+    synchronized int getSkipped() {
+        return skipped;
+    }
+
+    public byte[] transform(ClassLoader loader, String internalName,
+        Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+        byte[] classfileBuffer)
+    {
+        if (!enabled || classBeingRedefined != null || internalName == null
+                || !isWatched(protectionDomain)) {
+            return null;
+        }
+
+        byte[] digest = ClassFileDigest.digest(classfileBuffer);
+        String className = internalName.replace('/', '.');
+        synchronized (this) {
+            byte[] loaded = digests.get(className);
+            if (digest == null || (loaded != null && !Arrays.equals(digest, loaded))) {
+                digests.put(className, CONFLICT);
+            } else {
+                digests.put(className, digest);
+            }
+        }
+        return null;
+    }
+
+    private boolean isWatched(ProtectionDomain protectionDomain) {
+        for (File source : sources) {
+            if (LoadedClassIndex.isLoadedFrom(protectionDomain, source)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Digests a class file leaving out its debug information: line numbers, local
+ * variable names and types, and source file names. Two class files with the
+ * same digest differ at most in their debug information, so one can replace
+ * the other without changing what the class does. The constant pool is
+ * digested as is, so a change adding or removing constants, such as the
+ * renaming of a local variable, still gives a different digest.
+ */
+final class ClassFileDigest {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Set<String> DEBUG_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "LineNumberTable", "LocalVariableTable", "LocalVariableTypeTable",
+            "SourceDebugExtension", "SourceFile"));
+
+    private final byte[] bytes;
+    private final MessageDigest digest;
+    private String[] utf8;
+    private int position;
+
+    private ClassFileDigest(byte[] bytes) throws NoSuchAlgorithmException {
+        this.bytes = bytes;
+        this.digest = MessageDigest.getInstance("SHA-1");
+    }
+
+    /**
+     * Digests a class file without its debug information
+     *
+     * @param classBytes
+     *          the class file
+     * @return the digest, or null if the class file cannot be parsed
+     */
+    static byte[] digest(byte[] classBytes) {
+        try {
+            return new ClassFileDigest(classBytes).digestClass();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private byte[] digestClass() {
+        if (u4() != MAGIC) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+        position += 4;
+
+        int count = u2();
+        utf8 = new String[count];
+        for (int i = 1; i < count; i++) {
+            int tag = bytes[position++];
+            switch (tag) {
+            case 1:
+                int length = u2();
+                utf8[i] = new String(bytes, position, length, UTF8);
+                position += length;
+                break;
+            case 3:
+            case 4:
+            case 9:
+            case 10:
+            case 11:
+            case 12:
+            case 17:
+            case 18:
+                position += 4;
+                break;
+            case 5:
+            case 6:
+                position += 8;
+                i++;
+                break;
+            case 7:
+            case 8:
+            case 16:
+            case 19:
+            case 20:
+                position += 2;
+                break;
+            case 15:
+                position += 3;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown constant tag " + tag);
+            }
+        }
+
+        position += 6;
+        int interfaces = u2();
+        position += 2 * interfaces;
+        update(0, position);
+
+        for (int members = 0; members < 2; members++) {
+            int memberCount = u2();
+            for (int i = 0; i < memberCount; i++) {
+                update(position, 6);
+                position += 6;
+                digestAttributes();
+            }
+        }
+        digestAttributes();
+        return digest.digest();
+    }
+
+    /**
+     * Digests the attributes at the current position, leaving out the debug
+     * ones
+     */
+    private void digestAttributes() {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            int start = position;
+            String name = utf8[u2()];
+            int length = u4();
+            int end = position + length;
+
+            if ("Code".equals(name)) {
+                position += 4;
+                int codeLength = u4();
+                position += codeLength;
+                int exceptions = u2();
+                position += 8 * exceptions;
+                update(start, 2);
+                update(start + 6, position - start - 6);
+                digestAttributes();
+            } else if (!DEBUG_ATTRIBUTES.contains(name)) {
+                update(start, end - start);
+            }
+            position = end;
+        }
+    }
+
+    private void update(int offset, int length) {
+        if (offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException("Truncated class file");
+        }
+        digest.update(bytes, offset, length);
+    }
+
+    private int u2() {
+        int value = ((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF);
+        position += 2;
+        return value;
+    }
+
+    private int u4() {
+        return (u2() << 16) | u2();
+    }
+}
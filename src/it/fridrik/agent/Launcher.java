@@ -0,0 +1,228 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.VirtualMachineDescriptor;
+
+/**
+ * Loads the agent into running Java virtual machines. Targets are given by
+ * process id or by a regular expression matched against the main class and
+ * arguments of the running virtual machines, and are attached to concurrently.
+ * A virtual machine already running the agent reconfigures it with the new
+ * arguments instead of starting a second one.
+ * <p>
+ * Usage: Launcher [-l] [-t threads] agentArgs target...
+ */
+public class Launcher {
+
+    private static final int DEFAULT_THREADS = 8;
+
+    /**
+     * The outcome of attaching to one virtual machine
+     */
+    private static class AttachResult {
+        final String id;
+        final String displayName;
+        final long millis;
+        final String status;
+
+        AttachResult(String id, String displayName, long millis, String status) {
+            this.id = id;
+            this.displayName = displayName;
+            this.millis = millis;
+            this.status = status;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = DEFAULT_THREADS;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("-l")) {
+                for (VirtualMachineDescriptor descriptor : VirtualMachine.list()) {
+                    System.out.println(descriptor.id() + "\t" + descriptor.displayName());
+                }
+                return;
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            } else {
+                usage();
+            }
+        }
+        if (args.length - i < 2) {
+            usage();
+        }
+
+        String agentArgs = args[i];
+        if (!new SmithArgs(agentArgs).isValid()) {
+            System.err.println("Invalid agent arguments: " + agentArgs);
+            System.exit(1);
+        }
+
+        List<String> targets = new ArrayList<String>();
+        for (i++; i < args.length; i++) {
+            targets.add(args[i]);
+        }
+
+        Map<String, String> vms = findVirtualMachines(targets);
+        if (vms.isEmpty()) {
+            System.err.println("No virtual machine matches " + targets);
+            System.exit(1);
+        }
+
+        List<AttachResult> results = attach(getAgentJar(), agentArgs, vms, threads);
+        boolean failed = false;
+        for (AttachResult result : results) {
+            System.out.println(String.format("%-8s %6d ms  %-6s %s",
+                    result.id, result.millis, result.status, result.displayName));
+            failed |= !result.status.equals("OK");
+        }
+        System.exit(failed ? 2 : 0);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Launcher [-l] [-t threads] agentArgs target...");
+        System.err.println("  -l          list the running virtual machines");
+        System.err.println("  -t threads  number of concurrent attaches, default "
+                + DEFAULT_THREADS);
+        System.err.println("  target      a process id, or a regular expression"
+                + " matching the main class and arguments");
+        System.exit(1);
+    }
+
+    /**
+     * Finds the virtual machines given by process id or matching a pattern,
+     * excluding this one
+     * 
+     * @return the display names of the virtual machines found, by id
+     */
+    private static Map<String, String> findVirtualMachines(List<String> targets) {
+        String self = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        Map<String, String> vms = new LinkedHashMap<String, String>();
+        for (String target : targets) {
+            if (target.matches("\\d+")) {
+                if (!target.equals(self)) {
+                    vms.put(target, "");
+                }
+            } else {
+                patterns.add(Pattern.compile(target));
+            }
+        }
+
+        for (VirtualMachineDescriptor descriptor : VirtualMachine.list()) {
+            if (vms.containsKey(descriptor.id())) {
+                vms.put(descriptor.id(), descriptor.displayName());
+                continue;
+            }
+            for (Pattern pattern : patterns) {
+                if (!descriptor.id().equals(self)
+                        && pattern.matcher(descriptor.displayName()).find()) {
+                    vms.put(descriptor.id(), descriptor.displayName());
+                    break;
+                }
+            }
+        }
+        return vms;
+    }
+
+    /**
+     * Attaches to the virtual machines concurrently and loads the agent
+     * 
+     * @return the outcome for each virtual machine, in the order given
+     */
+    private static List<AttachResult> attach(final String agentJar,
+        final String agentArgs, Map<String, String> vms, int threads)
+        throws InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, vms.size())));
+        List<Future<AttachResult>> futures = new ArrayList<Future<AttachResult>>();
+        for (final Map.Entry<String, String> vm : vms.entrySet()) {
+            futures.add(executor.submit(new Callable<AttachResult>() {
+                public AttachResult call() {
+                    return attach(agentJar, agentArgs, vm.getKey(), vm.getValue());
+                }
+            }));
+        }
+        executor.shutdown();
+
+        List<AttachResult> results = new ArrayList<AttachResult>();
+        for (Future<AttachResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (Exception e) {
+                results.add(new AttachResult("?", "", 0, e.toString()));
+            }
+        }
+        return results;
+    }
+
+    private static AttachResult attach(
+        String agentJar, String agentArgs, String id, String displayName)
+    {
+        long start = System.nanoTime();
+        String status;
+        try {
+            VirtualMachine vm = VirtualMachine.attach(id);
+            try {
+                vm.loadAgent(agentJar, agentArgs);
+                status = "OK";
+            } finally {
+                vm.detach();
+            }
+        } catch (Exception e) {
+            status = "FAILED " + e;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new AttachResult(id, displayName, millis, status);
+    }
+
+    /**
+     * Gets the path of the jar this class was loaded from, which is the agent
+     * jar
+     */
+    private static String getAgentJar() {
+        try {
+            File jar = new File(Launcher.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI());
+            if (jar.isFile()) {
+                return jar.getAbsolutePath();
+            }
+        } catch (Exception e) {
+            // fall through
+        }
+        throw new IllegalStateException("The launcher must be run from the agent jar");
+    }
+}
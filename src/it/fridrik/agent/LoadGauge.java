@@ -0,0 +1,32 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+/**
+ * Measures the load of the application, so redefinitions can be deferred while
+ * it is busy. Implementations named by the loadgauge argument must have a
+ * public no-argument constructor.
+ */
+public interface LoadGauge {
+
+    /**
+     * Gets the current load
+     * 
+     * @return the load, from 0 (idle) to 1 (fully busy)
+     */
+    public double getLoad();
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Indexes the loaded classes by name. The same class name can be loaded by
+ * several class loaders, for example by each web application in a servlet
+ * container, so every live class with the name is kept. Classes are weakly
+ * referenced so the index does not prevent class loaders from being garbage
+ * collected.
+ * <p>
+ * The index is also a class file transformer noting the names of the classes
+ * loaded since the last refresh, so a class loaded since is found even if the
+ * index was refreshed recently.
+ */
+class LoadedClassIndex implements ClassFileTransformer {
+
+    /** Max number of class names noted between two refreshes */
+    private static final int LOADED_NAMES_MAX = 4096;
+
+    private final Instrumentation inst;
+    private final long minRefreshMillis;
+    private final Set<String> loadedSinceRefresh = new HashSet<String>();
+    private boolean loadedNamesOverflow;
+    private HashMap<String, List<WeakReference<Class<?>>>> classesMap;
+    private long refreshed;
+
+    /**
+     * Creates an empty index, filled on first use
+     * 
+     * @param inst
+     *          the instrumentation implementation
+     * @param minRefreshMillis
+     *          the min time between two refreshes caused by unknown class names
+     */
+    LoadedClassIndex(Instrumentation inst, long minRefreshMillis) {
+        this.inst = inst;
+        this.minRefreshMillis = minRefreshMillis;
+    }
+
+    /**
+     * Gets the live classes with the specified name. If there are none, the
+     * index is refreshed first, unless it was refreshed recently and no class
+     * with the name was loaded since.
+     * 
+     * @param className
+     *          the fully qualified class name
+     * @return the classes, possibly empty
+     */
+    synchronized List<Class<?>> getClasses(String className) {
+        if (classesMap == null) {
+            refresh();
+        }
+
+        List<Class<?>> classes = lookup(className);
+        if (classes.isEmpty()
+                && (isLoadedSinceRefresh(className)
+                    || System.currentTimeMillis() - refreshed >= minRefreshMillis)) {
+            refresh();
+            classes = lookup(className);
+        }
+        return classes;
+    }
+
+    /**
+     * Rebuilds the index from the classes currently loaded
+     */
+    synchronized void refresh() {
+        classesMap = new HashMap<String, List<WeakReference<Class<?>>>>();
+        for (Class<?> clazz : inst.getAllLoadedClasses()) {
+            List<WeakReference<Class<?>>> classes = classesMap.get(clazz.getName());
+            if (classes == null) {
+                classes = new ArrayList<WeakReference<Class<?>>>(1);
+                classesMap.put(clazz.getName(), classes);
+            }
+            classes.add(new WeakReference<Class<?>>(clazz));
+        }
+        refreshed = System.currentTimeMillis();
+
+        // names of classes still being defined are kept for the next lookup
+        synchronized (loadedSinceRefresh) {
+            loadedSinceRefresh.removeAll(classesMap.keySet());
+            loadedNamesOverflow = false;
+        }
+    }
+
+    /**
+     * Notes the name of a class being loaded, leaving its bytes unchanged
+     */
+    public byte[] transform(ClassLoader loader, String internalName,
+        Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+        byte[] classfileBuffer)
+    {
+        if (classBeingRedefined == null && internalName != null) {
+            synchronized (loadedSinceRefresh) {
+                if (loadedSinceRefresh.size() >= LOADED_NAMES_MAX) {
+                    loadedSinceRefresh.clear();
+                    loadedNamesOverflow = true;
+                }
+                loadedSinceRefresh.add(internalName.replace('/', '.'));
+            }
+        }
+        return null;
+    }
+
+    private boolean isLoadedSinceRefresh(String className) {
+        synchronized (loadedSinceRefresh) {
+            return loadedNamesOverflow || loadedSinceRefresh.contains(className);
+        }
+    }
+
+    private List<Class<?>> lookup(String className) {
+        List<WeakReference<Class<?>>> references = classesMap.get(className);
+        if (references == null) {
+            return Collections.emptyList();
+        }
+
+        List<Class<?>> classes = new ArrayList<Class<?>>(references.size());
+        for (Iterator<WeakReference<Class<?>>> i = references.iterator(); i.hasNext();) {
+            Class<?> clazz = i.next().get();
+            if (clazz == null) {
+                i.remove();
+            } else {
+                classes.add(clazz);
+            }
+        }
+        if (references.isEmpty()) {
+            classesMap.remove(className);
+        }
+        return classes;
+    }
+
+    /**
+     * Tells if a class was loaded from the specified folder or jar
+     * 
+     * @param clazz
+     *          the loaded class
+     * @param source
+     *          the folder or jar file the class was changed in
+     * @return true if the code source of the class is the folder or jar, or is
+     *         inside it
+     */
+    static boolean isLoadedFrom(Class<?> clazz, File source) {
+        return isLoadedFrom(clazz.getProtectionDomain(), source);
+    }
+
+    /**
+     * Tells if a protection domain is the one of classes loaded from the
+     * specified folder or jar
+     * 
+     * @param domain
+     *          the protection domain of a class, possibly null
+     * @param source
+     *          the folder or jar file the class was changed in
+     * @return true if the code source of the domain is the folder or jar, or is
+     *         inside it
+     */
+    static boolean isLoadedFrom(ProtectionDomain domain, File source) {
+        CodeSource codeSource = (domain == null) ? null : domain.getCodeSource();
+        URL location = (codeSource == null) ? null : codeSource.getLocation();
+        if (location == null || !"file".equals(location.getProtocol())) {
+            return false;
+        }
+
+        File locationFile;
+        try {
+            locationFile = new File(location.toURI());
+        } catch (Exception e) {
+            locationFile = new File(location.getPath());
+        }
+
+        String locationPath = locationFile.getAbsolutePath();
+        String sourcePath = source.getAbsolutePath();
+        return locationPath.equals(sourcePath)
+                || locationPath.startsWith(sourcePath + File.separator);
+    }
+}
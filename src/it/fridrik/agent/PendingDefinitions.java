@@ -0,0 +1,186 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the classes changed before they were loaded, and defines them with the
+ * changed bytes when they are first loaded, unless the class loader read the
+ * same bytes. A class loader reading from a jar it keeps open can read the
+ * entries of the jar as they were when it was opened, so without this the
+ * change would be lost. The changed bytes are given only to a class loader
+ * loading the class from the folder or jar it was changed in, when that is
+ * known, and only once: later definitions of the class, by other class
+ * loaders, keep the bytes they read. The table is bounded: the least recently
+ * changed classes are evicted when it is full, and classes not loaded within
+ * the time to live are forgotten. A class changed again replaces its entry.
+ */
+class PendingDefinitions implements ClassFileTransformer {
+
+    private static final Logger log = Logger.getLogger(Smith.class.getName());
+
+    /**
+     * The changed bytes of a class not loaded yet
+     */
+    private static class PendingDefinition {
+        final byte[] classBytes;
+        final long digest;
+        final File source;
+        final long submitted;
+
+        PendingDefinition(byte[] classBytes, File source, long submitted) {
+            this.classBytes = classBytes;
+            this.digest = digest(classBytes);
+            this.source = source;
+            this.submitted = submitted;
+        }
+    }
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<String, PendingDefinition> definitions =
+            new LinkedHashMap<String, PendingDefinition>();
+    private int served;
+
+    /**
+     * Creates an empty table
+     *
+     * @param maxEntries
+     *          the max number of classes kept
+     * @param timeToLiveMillis
+     *          the time a class is kept if it is not loaded, in milliseconds
+     */
+    PendingDefinitions(int maxEntries, long timeToLiveMillis) {
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Keeps the changed bytes of a class not loaded yet, replacing any previous
+     * change of the class
+     *
+     * @param className
+     *          the fully qualified class name
+     * @param classBytes
+     *          the compiled class
+     * @param source
+     *          the folder or jar file the class was changed in, or null if
+     *          unknown
+     */
+    synchronized void put(String className, byte[] classBytes, File source) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        definitions.remove(className);
+        definitions.put(className, new PendingDefinition(classBytes, source, now));
+        if (definitions.size() > maxEntries) {
+            Iterator<String> eldest = definitions.keySet().iterator();
+            log.fine("Forgetting the change of " + eldest.next() + ", not loaded yet");
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Forgets the change of a class, for example because the class was loaded
+     * and redefined since
+     *
+     * @param className
+     *          the fully qualified class name
+     */
+    synchronized void remove(String className) {
+        if (!definitions.isEmpty()) {
+            definitions.remove(className);
+        }
+    }
+
+    /**
+     * Gets the number of classes kept
+     */
+    synchronized int size() {
+        return definitions.size();
+    }
+
+    /**
+     * Gets the number of classes defined with changed bytes so far
+     */
+    synchronized int getServed() {
+        return served;
+    }
+
+    public byte[] transform(ClassLoader loader, String internalName,
+        Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+        byte[] classfileBuffer)
+    {
+        if (classBeingRedefined != null || internalName == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (definitions.isEmpty()) {
+                return null;
+            }
+
+            String className = internalName.replace('/', '.');
+            PendingDefinition definition = definitions.get(className);
+            if (definition == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - definition.submitted >= timeToLiveMillis) {
+                definitions.remove(className);
+                return null;
+            }
+            if (definition.source != null
+                    && !LoadedClassIndex.isLoadedFrom(protectionDomain, definition.source)) {
+                return null;
+            }
+            definitions.remove(className);
+            if (classfileBuffer.length == definition.classBytes.length
+                    && digest(classfileBuffer) == definition.digest) {
+                return null;
+            }
+
+            served++;
+            log.info("Defined " + className + " with the bytes changed before it was loaded");
+            return definition.classBytes;
+        }
+    }
+
+    /**
+     * Forgets the classes kept for longer than the time to live
+     */
+    private void expire(long now) {
+        for (Iterator<Map.Entry<String, PendingDefinition>> i =
+                definitions.entrySet().iterator(); i.hasNext();) {
+            if (now - i.next().getValue().submitted < timeToLiveMillis) {
+                break;
+            }
+            i.remove();
+        }
+    }
+
+    private static long digest(byte[] classBytes) {
+        CRC32 crc = new CRC32();
+        crc.update(classBytes);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+import java.io.File;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the changed classes found during a check and redefines them in
+ * batches. Since redefining classes stops the whole virtual machine, a batch
+ * is split into chunks expected to fit the pause budget, the expected pause
+ * being learned from the previous chunks. Redefinitions can also be deferred
+ * while the application load is above a threshold, for at most the max
+ * deferral time.
+ * <p>
+ * A redefinition either applies to all the classes of a chunk or to none, so
+ * a single class that cannot be redefined, such as one with a new field,
+ * makes its whole chunk fail. A failed chunk is bisected to isolate the
+ * classes that cannot be redefined and redefine the others: when the first
+ * half of a failed chunk is redefined, the failure is known to be in the
+ * second half, which is bisected without being tried whole. A single bad
+ * class among n thus costs about log2(n) more redefinitions. A class left
+ * alone by the bisection is tried alone, unless it already was, so a class
+ * failing only together with others is redefined, and every class that could
+ * not be redefined is reported with its own failure.
+ */
+class RedefinitionScheduler {
+
+    private static final Logger log = Logger.getLogger(Smith.class.getName());
+
+    /** Number of classes redefined in the first chunk, before any pause was measured */
+    private static final int INITIAL_CHUNK_SIZE = 8;
+
+    /**
+     * A changed class waiting to be redefined
+     */
+    private static class PendingClass {
+        final String className;
+        final byte[] classBytes;
+        final File source;
+
+        PendingClass(String className, byte[] classBytes, File source) {
+            this.className = className;
+            this.classBytes = classBytes;
+            this.source = source;
+        }
+    }
+
+    /**
+     * The outcome of the redefinition of a batch of classes
+     */
+    static class BatchReport {
+        int calls;
+        int redefined;
+        long longestPause;
+        long totalPause;
+        final List<Class<?>> classes = new ArrayList<Class<?>>();
+        final LinkedHashMap<ClassDefinition, Throwable> failures =
+                new LinkedHashMap<ClassDefinition, Throwable>();
+    }
+
+    /**
+     * Measures the CPU usage of this process, or the system load average if the
+     * process CPU time is not available
+     */
+    private static class CpuLoadGauge implements LoadGauge {
+        private final OperatingSystemMXBean bean =
+                ManagementFactory.getOperatingSystemMXBean();
+        private long lastCpuTime = -1;
+        private long lastTime;
+
+        public double getLoad() {
+            int processors = bean.getAvailableProcessors();
+            if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+                long cpuTime = ((com.sun.management.OperatingSystemMXBean) bean)
+                        .getProcessCpuTime();
+                long time = System.nanoTime();
+                double load = 0;
+                if (lastCpuTime >= 0 && time > lastTime) {
+                    load = (double) (cpuTime - lastCpuTime)
+                            / (time - lastTime) / processors;
+                }
+                lastCpuTime = cpuTime;
+                lastTime = time;
+                return load;
+            }
+            return Math.max(0, bean.getSystemLoadAverage()) / processors;
+        }
+    }
+
+    private final Smith smith;
+    private final Instrumentation inst;
+    private long pauseBudgetNanos;
+    private double maxLoad;
+    private long maxDeferralMillis;
+    private String loadGaugeClassName;
+    private final LinkedHashMap<String, PendingClass> pending =
+            new LinkedHashMap<String, PendingClass>();
+    private LoadGauge loadGauge;
+    private long firstPendingTime;
+    private double nanosPerClass;
+
+    /**
+     * Creates a scheduler
+     * 
+     * @param smith
+     *          the agent that finds the classes to redefine
+     * @param inst
+     *          the instrumentation implementation
+     * @param args
+     *          the agent arguments giving the pause budget and load threshold
+     */
+    RedefinitionScheduler(Smith smith, Instrumentation inst, SmithArgs args) {
+        this.smith = smith;
+        this.inst = inst;
+        configure(args);
+    }
+
+    /**
+     * Applies the pause budget and load threshold of the agent arguments,
+     * keeping the classes waiting to be redefined
+     * 
+     * @param args
+     *          the agent arguments
+     */
+    synchronized void configure(SmithArgs args) {
+        this.pauseBudgetNanos = TimeUnit.MILLISECONDS.toNanos(args.getPauseBudget());
+        this.maxLoad = args.getMaxLoad();
+        this.maxDeferralMillis = args.getMaxDeferral();
+        if (args.getLoadGauge() == null
+                ? loadGaugeClassName != null
+                : !args.getLoadGauge().equals(loadGaugeClassName)) {
+            this.loadGaugeClassName = args.getLoadGauge();
+            this.loadGauge = null;
+        }
+    }
+
+    /**
+     * Adds a changed class to the next batch, replacing any previous change of
+     * the same class not redefined yet
+     * 
+     * @param className
+     *          the class name to redefine
+     * @param classBytes
+     *          the compiled class to redefine
+     * @param source
+     *          the folder or jar file the class was changed in
+     */
+    synchronized void submit(String className, byte[] classBytes, File source) {
+        if (pending.isEmpty()) {
+            firstPendingTime = System.currentTimeMillis();
+        }
+        pending.remove(className);
+        pending.put(className, new PendingClass(className, classBytes, source));
+    }
+
+    /**
+     * Redefines the classes submitted so far, unless the application is too
+     * busy and they have not been waiting for longer than the max deferral.
+     * The load is measured on every call, so a CPU based load covers the time
+     * since the previous call.
+     */
+    synchronized void flush() {
+        double load = (maxLoad > 0) ? getLoadGauge().getLoad() : 0;
+        if (pending.isEmpty() || isDeferred(load)) {
+            return;
+        }
+
+        List<ClassDefinition> definitions = new ArrayList<ClassDefinition>();
+        for (PendingClass pendingClass : pending.values()) {
+            definitions.addAll(smith.getClassDefinitions(
+                    pendingClass.className, pendingClass.classBytes,
+                    pendingClass.source));
+        }
+        pending.clear();
+
+        redefine(definitions);
+    }
+
+    /**
+     * Redefines classes in chunks, isolating the classes that cannot be
+     * redefined, and logs the outcome. The copies of a class loaded by several
+     * class loaders are listed next to each other and kept in the same chunk.
+     * 
+     * @param definitions
+     *          the definitions of the classes to redefine, grouped by class name
+     * @return the outcome
+     */
+    BatchReport redefine(List<ClassDefinition> definitions) {
+        BatchReport report = new BatchReport();
+        int chunks = 0;
+        int from = 0;
+        while (from < definitions.size()) {
+            int to = nextClass(definitions,
+                    (int) Math.min(definitions.size(), (long) from + getChunkSize()));
+            redefine(definitions.subList(from, to), report);
+            chunks++;
+            from = to;
+        }
+
+        if (chunks > 0) {
+            log.info("Redefined " + report.redefined + " of " + definitions.size()
+                    + " class(es) in " + chunks + " chunk(s) and " + report.calls
+                    + " call(s), longest pause (ms): "
+                    + TimeUnit.NANOSECONDS.toMillis(report.longestPause));
+        }
+        for (Map.Entry<ClassDefinition, Throwable> failure : report.failures.entrySet()) {
+            Class<?> failed = failure.getKey().getDefinitionClass();
+            log.severe("Cannot redefine " + failed.getName() + " loaded by "
+                    + failed.getClassLoader() + ": " + failure.getValue());
+            log.log(Level.FINE, "redefineClasses", failure.getValue());
+        }
+        if (!report.failures.isEmpty()) {
+            smith.redefinitionFailed(
+                    new ArrayList<ClassDefinition>(report.failures.keySet()));
+        }
+        if (!report.classes.isEmpty()) {
+            smith.classesRedefined(report.classes, report.failures.size(),
+                    report.totalPause);
+        }
+        return report;
+    }
+
+    /**
+     * Redefines a chunk of classes, bisecting it if it fails
+     */
+    private void redefine(List<ClassDefinition> chunk, BatchReport report) {
+        Throwable failure = tryRedefine(chunk, report);
+        if (failure != null) {
+            isolate(chunk, failure, report);
+        }
+    }
+
+    /**
+     * Isolates the classes that cannot be redefined in a failed chunk and
+     * redefines the others
+     * 
+     * @param chunk
+     *          the chunk that failed
+     * @param failure
+     *          the failure of the chunk, or null if the chunk was not tried
+     *          whole
+     * @param report
+     *          the report of the batch
+     */
+    private void isolate(List<ClassDefinition> chunk, Throwable failure,
+        BatchReport report)
+    {
+        if (chunk.size() == 1) {
+            if (failure == null) {
+                failure = tryRedefine(chunk, report);
+            }
+            if (failure != null) {
+                report.failures.put(chunk.get(0), failure);
+            }
+            return;
+        }
+
+        // split between two class names, or between the copies of a single class
+        int middle = nextClass(chunk, chunk.size() / 2);
+        if (middle == chunk.size()) {
+            middle = previousClass(chunk, chunk.size() / 2);
+            if (middle == 0) {
+                middle = chunk.size() / 2;
+            }
+        }
+        List<ClassDefinition> first = chunk.subList(0, middle);
+        List<ClassDefinition> second = chunk.subList(middle, chunk.size());
+        Throwable firstFailure = tryRedefine(first, report);
+        if (firstFailure == null) {
+            isolate(second, null, report);
+        } else {
+            isolate(first, firstFailure, report);
+            redefine(second, report);
+        }
+    }
+
+    /**
+     * Redefines a chunk of classes and learns how long it paused the virtual
+     * machine
+     * 
+     * @return the failure, or null if the classes were redefined
+     */
+    private Throwable tryRedefine(List<ClassDefinition> chunk, BatchReport report) {
+        report.calls++;
+        long start = System.nanoTime();
+        try {
+            inst.redefineClasses(chunk.toArray(new ClassDefinition[chunk.size()]));
+        } catch (Exception e) {
+            return e;
+        } catch (LinkageError e) {
+            return e;
+        }
+        long pause = System.nanoTime() - start;
+        report.redefined += chunk.size();
+        report.longestPause = Math.max(report.longestPause, pause);
+        report.totalPause += pause;
+        for (ClassDefinition definition : chunk) {
+            report.classes.add(definition.getDefinitionClass());
+        }
+
+        double chunkNanosPerClass = (double) pause / chunk.size();
+        nanosPerClass = (nanosPerClass == 0)
+                ? chunkNanosPerClass
+                : (nanosPerClass + chunkNanosPerClass) / 2;
+        return null;
+    }
+
+    /**
+     * Gets the first index at or after an index that starts a new class name
+     * in definitions grouped by class name, or the number of definitions
+     */
+    private static int nextClass(List<ClassDefinition> definitions, int index) {
+        while (index > 0 && index < definitions.size()
+                && isSameClass(definitions, index)) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Gets the last index at or before an index that starts a new class name
+     * in definitions grouped by class name, or 0
+     */
+    private static int previousClass(List<ClassDefinition> definitions, int index) {
+        while (index > 0 && isSameClass(definitions, index)) {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Tells if a definition redefines a class with the same name as the
+     * definition before it
+     */
+    private static boolean isSameClass(List<ClassDefinition> definitions, int index) {
+        return definitions.get(index).getDefinitionClass().getName().equals(
+                definitions.get(index - 1).getDefinitionClass().getName());
+    }
+
+    /**
+     * Gets the number of classes expected to be redefined within the pause
+     * budget
+     */
+    private int getChunkSize() {
+        if (pauseBudgetNanos <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        if (nanosPerClass == 0) {
+            return INITIAL_CHUNK_SIZE;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                pauseBudgetNanos / nanosPerClass));
+    }
+
+    private boolean isDeferred(double load) {
+        if (maxLoad <= 0 || load <= maxLoad) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() - firstPendingTime >= maxDeferralMillis) {
+            log.info("Redefining despite load " + load + " after waiting (ms): "
+                    + maxDeferralMillis);
+            return false;
+        }
+
+        log.fine("Deferring redefinition of " + pending.size()
+                + " class(es), load " + load);
+        return true;
+    }
+
+    private LoadGauge getLoadGauge() {
+        if (loadGauge == null) {
+            loadGauge = createLoadGauge();
+        }
+        return loadGauge;
+    }
+
+    private LoadGauge createLoadGauge() {
+        if (loadGaugeClassName != null) {
+            try {
+                return Class.forName(loadGaugeClassName, true,
+                        ClassLoader.getSystemClassLoader())
+                        .asSubclass(LoadGauge.class).getConstructor().newInstance();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Cannot create load gauge "
+                        + loadGaugeClassName + ", using CPU load", e);
+            }
+        }
+        return new CpuLoadGauge();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of classes redefined by a Smith agent, with what it cost. The
+ * recovery metrics are known once the listeners are told the application
+ * recovered, and are -1 until then.
+ *
+ * @see ReloadListener
+ */
+public class ReloadEvent {
+
+    private final List<Class<?>> classes;
+    private final int failed;
+    private final long time;
+    private final long pauseMillis;
+    private volatile long warmUpMillis = -1;
+    private volatile long recoveryMillis = -1;
+    private volatile long compilationMillis = -1;
+
+    ReloadEvent(List<Class<?>> classes, int failed, long time, long pauseMillis) {
+        this.classes = Collections.unmodifiableList(classes);
+        this.failed = failed;
+        this.time = time;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Gets the redefined classes. A class loaded by several class loaders is
+     * listed once per class loader.
+     */
+    public List<Class<?>> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Gets the number of classes of the batch that could not be redefined
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets the time the classes were redefined, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Gets how long the redefinitions paused the jvm, in milliseconds
+     */
+    public long getPauseMillis() {
+        return pauseMillis;
+    }
+
+    /**
+     * Gets how long the warm-up callbacks ran, in milliseconds, 0 if none ran
+     */
+    public long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+
+    /**
+     * Gets the time from the redefinitions to the end of the JIT compilations
+     * they caused, in milliseconds. Redefined classes lose their compiled code,
+     * which is compiled again as it runs hot again.
+     */
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    /**
+     * Gets the JIT compilation time spent during the recovery, in milliseconds,
+     * or -1 if the jvm does not measure it
+     */
+    public long getCompilationMillis() {
+        return compilationMillis;
+    }
+
+    void setWarmUpMillis(long warmUpMillis) {
+        this.warmUpMillis = warmUpMillis;
+    }
+
+    void setRecovery(long recoveryMillis, long compilationMillis) {
+        this.recoveryMillis = recoveryMillis;
+        this.compilationMillis = compilationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return classes.size() + " class(es) redefined, " + failed + " failed, pause (ms): "
+                + pauseMillis + ", warm-up (ms): " + warmUpMillis + ", recovery (ms): "
+                + recoveryMillis + ", JIT compilation (ms): " + compilationMillis;
+    }
+}
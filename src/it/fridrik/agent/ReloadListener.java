@@ -0,0 +1,43 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+/**
+ * Listens for the redefinitions done by the Smith agents, for example to warm
+ * up the redefined code or to report the cost of the redefinitions. Listeners
+ * are added with {@link Smith#addReloadListener(ReloadListener)} and called on
+ * the agent threads, so they should return quickly.
+ */
+public interface ReloadListener {
+
+    /**
+     * Called after a batch of classes was redefined
+     *
+     * @param event
+     *          the redefined classes
+     */
+    public void classesRedefined(ReloadEvent event);
+
+    /**
+     * Called once the application recovered from a batch of redefinitions: the
+     * warm-up callbacks ran and the JIT compiler stopped compiling
+     *
+     * @param event
+     *          the redefined classes, with the recovery metrics
+     */
+    public void reloadRecovered(ReloadEvent event);
+
+}
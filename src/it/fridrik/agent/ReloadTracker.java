@@ -0,0 +1,321 @@
+/*
+ * Agent Smith - A java hot class redefinition implementation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.agent;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows the batches of redefined classes: tells the reload listeners, runs
+ * the warm-up callbacks registered for the redefined classes and measures how
+ * long the application takes to recover. Redefining a class throws away its
+ * compiled code, so the application runs slower until the JIT compiler
+ * compiled the hot methods again. The jvm does not tell how many methods were
+ * deoptimized, so the recovery is measured through the JIT compilation time,
+ * sampled until it stops growing: the recovery ends at the last compilation
+ * followed by a quiet period, or after the max recovery time.
+ * <p>
+ * The warm-up callbacks run on a low priority thread of their own, a given
+ * number of times each, so the redefined code is compiled again before the
+ * application needs it, without competing with the application.
+ */
+class ReloadTracker {
+
+    private static final Logger log = Logger.getLogger(Smith.class.getName());
+
+    /** Number of redefined batches kept */
+    private static final int HISTORY_SIZE = 16;
+
+    /** Number of samples without compilation that end a recovery */
+    private static final int QUIET_SAMPLES = 5;
+
+    /**
+     * Measures the recovery from one batch of redefinitions
+     */
+    private class Recovery implements Runnable {
+        private final ReloadEvent event;
+        private final long compilationStart;
+        private ScheduledFuture<?> task;
+        private volatile boolean warmedUp;
+        private long compilation;
+        private long lastCompiled;
+        private int quietSamples;
+
+        Recovery(ReloadEvent event) {
+            this.event = event;
+            this.compilationStart = getCompilationTime();
+            this.compilation = compilationStart;
+            this.lastCompiled = event.getTime();
+        }
+
+        /**
+         * Starts sampling the JIT compilation time. The first sample waits for
+         * the task to be known, so it can cancel itself.
+         */
+        synchronized void start() {
+            task = service.scheduleWithFixedDelay(
+                    this, sampleMillis, sampleMillis, TimeUnit.MILLISECONDS);
+        }
+
+        public synchronized void run() {
+            long now = System.currentTimeMillis();
+            long total = getCompilationTime();
+            if (total > compilation) {
+                compilation = total;
+                lastCompiled = now;
+                quietSamples = 0;
+            } else {
+                quietSamples++;
+            }
+
+            boolean quiet = quietSamples >= QUIET_SAMPLES || total < 0;
+            if ((quiet && warmedUp) || now - event.getTime() >= maxRecoveryMillis) {
+                task.cancel(false);
+                event.setRecovery(Math.max(0, lastCompiled - event.getTime()),
+                        (total < 0) ? -1 : total - compilationStart);
+                log.info("Recovered from the redefinition of " + event.getClasses().size()
+                        + " class(es) in (ms): " + event.getRecoveryMillis()
+                        + ", JIT compilation (ms): " + event.getCompilationMillis()
+                        + ", warm-up (ms): " + event.getWarmUpMillis());
+                for (ReloadListener listener : listeners) {
+                    try {
+                        listener.reloadRecovered(event);
+                    } catch (Throwable e) {
+                        log.log(Level.SEVERE, "reloadRecovered", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the low priority daemon thread running the warm-up callbacks
+     */
+    private static class WarmUpThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "smith-warmup");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+
+    private final ScheduledExecutorService service;
+    private final long sampleMillis;
+    private final long maxRecoveryMillis;
+    private CompilationMXBean compilationBean;
+    private boolean compilationBeanChecked;
+    private final List<ReloadListener> listeners = new CopyOnWriteArrayList<ReloadListener>();
+    private final Map<String, List<Runnable>> warmUps = new HashMap<String, List<Runnable>>();
+    private final LinkedList<ReloadEvent> history = new LinkedList<ReloadEvent>();
+    private ExecutorService warmUpExecutor;
+    private volatile int warmUpIterations;
+
+    /**
+     * Creates a tracker
+     *
+     * @param service
+     *          the scheduler sampling the JIT compilation time
+     * @param sampleMillis
+     *          the time between samples of the JIT compilation time
+     * @param maxRecoveryMillis
+     *          the max time a recovery is measured
+     */
+    ReloadTracker(ScheduledExecutorService service, long sampleMillis,
+        long maxRecoveryMillis)
+    {
+        this.service = service;
+        this.sampleMillis = sampleMillis;
+        this.maxRecoveryMillis = maxRecoveryMillis;
+    }
+
+    /**
+     * Sets the number of times the warm-up callbacks of the redefined classes
+     * are run after each batch, zero not to run them
+     */
+    void setWarmUpIterations(int iterations) {
+        this.warmUpIterations = iterations;
+    }
+
+    void addListener(ReloadListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(ReloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    synchronized void addWarmUp(String className, Runnable warmUp) {
+        List<Runnable> classWarmUps = warmUps.get(className);
+        if (classWarmUps == null) {
+            classWarmUps = new ArrayList<Runnable>(1);
+            warmUps.put(className, classWarmUps);
+        }
+        classWarmUps.add(warmUp);
+    }
+
+    synchronized void removeWarmUp(String className, Runnable warmUp) {
+        List<Runnable> classWarmUps = warmUps.get(className);
+        if (classWarmUps != null) {
+            classWarmUps.remove(warmUp);
+            if (classWarmUps.isEmpty()) {
+                warmUps.remove(className);
+            }
+        }
+    }
+
+    /**
+     * Gets the last batches of redefined classes, the oldest first
+     */
+    synchronized List<ReloadEvent> getHistory() {
+        return new ArrayList<ReloadEvent>(history);
+    }
+
+    /**
+     * Tells the listeners that a batch of classes was redefined, then warms up
+     * the redefined classes and measures the recovery
+     *
+     * @param classes
+     *          the redefined classes
+     * @param failed
+     *          the number of classes of the batch that could not be redefined
+     * @param pauseNanos
+     *          how long the redefinitions paused the jvm, in nanoseconds
+     * @return the event describing the batch
+     */
+    ReloadEvent classesRedefined(List<Class<?>> classes, int failed, long pauseNanos) {
+        ReloadEvent event = new ReloadEvent(classes, failed, System.currentTimeMillis(),
+                TimeUnit.NANOSECONDS.toMillis(pauseNanos));
+        List<Runnable> eventWarmUps = new ArrayList<Runnable>();
+        synchronized (this) {
+            history.add(event);
+            if (history.size() > HISTORY_SIZE) {
+                history.removeFirst();
+            }
+            if (warmUpIterations > 0) {
+                Set<String> classNames = new LinkedHashSet<String>();
+                for (Class<?> redefined : classes) {
+                    classNames.add(redefined.getName());
+                }
+                for (String className : classNames) {
+                    List<Runnable> classWarmUps = warmUps.get(className);
+                    if (classWarmUps != null) {
+                        eventWarmUps.addAll(classWarmUps);
+                    }
+                }
+            }
+        }
+
+        for (ReloadListener listener : listeners) {
+            try {
+                listener.classesRedefined(event);
+            } catch (Throwable e) {
+                log.log(Level.SEVERE, "classesRedefined", e);
+            }
+        }
+
+        Recovery recovery = new Recovery(event);
+        warmUp(event, eventWarmUps, recovery);
+        recovery.start();
+        return event;
+    }
+
+    /**
+     * Runs the warm-up callbacks of a batch on the warm-up thread, then lets
+     * the recovery end
+     */
+    private void warmUp(final ReloadEvent event, final List<Runnable> eventWarmUps,
+        final Recovery recovery)
+    {
+        if (eventWarmUps.isEmpty()) {
+            event.setWarmUpMillis(0);
+            recovery.warmedUp = true;
+            return;
+        }
+
+        final int iterations = warmUpIterations;
+        getWarmUpExecutor().execute(new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    List<Runnable> remaining = new ArrayList<Runnable>(eventWarmUps);
+                    for (int i = 0; i < iterations && !remaining.isEmpty(); i++) {
+                        for (int j = remaining.size() - 1; j >= 0; j--) {
+                            try {
+                                remaining.get(j).run();
+                            } catch (Throwable e) {
+                                log.log(Level.WARNING, "Warm-up failed, not run again", e);
+                                remaining.remove(j);
+                            }
+                        }
+                    }
+                } finally {
+                    event.setWarmUpMillis(TimeUnit.NANOSECONDS.toMillis(
+                            System.nanoTime() - start));
+                    recovery.warmedUp = true;
+                }
+            }
+        });
+    }
+
+    private synchronized ExecutorService getWarmUpExecutor() {
+        if (warmUpExecutor == null) {
+            warmUpExecutor = Executors.newSingleThreadExecutor(new WarmUpThreadFactory());
+        }
+        return warmUpExecutor;
+    }
+
+    /**
+     * Gets the total JIT compilation time of the jvm, in milliseconds, or -1 if
+     * it is not measured
+     */
+    private long getCompilationTime() {
+        CompilationMXBean bean = getCompilationBean();
+        return (bean != null) ? bean.getTotalCompilationTime() : -1;
+    }
+
+    /**
+     * Gets the bean measuring the JIT compilation time, or null if the jvm does
+     * not measure it. The management classes are loaded on the first
+     * redefinition only, so they do not slow down the agent startup.
+     */
+    private synchronized CompilationMXBean getCompilationBean() {
+        if (!compilationBeanChecked) {
+            compilationBeanChecked = true;
+            CompilationMXBean bean = ManagementFactory.getCompilationMXBean();
+            if (bean != null && bean.isCompilationTimeMonitoringSupported()) {
+                compilationBean = bean;
+            }
+        }
+        return compilationBean;
+    }
+}
@@ -16,12 +16,15 @@
  */
 package it.fridrik.agent;
 
+import it.fridrik.filemonitor.ChangeRecorder;
 import it.fridrik.filemonitor.FileEvent;
 import it.fridrik.filemonitor.FileModifiedListener;
 import it.fridrik.filemonitor.FileMonitor;
 import it.fridrik.filemonitor.JarEvent;
 import it.fridrik.filemonitor.JarModifiedListener;
 import it.fridrik.filemonitor.JarMonitor;
+import it.fridrik.filemonitor.ScanCompletedListener;
+import it.fridrik.filemonitor.WatchRegistry;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -31,12 +34,11 @@ import java.io.InputStream;
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
-import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -46,32 +48,54 @@ import java.util.logging.Logger;
 /**
  * Agent Smith is an agent with just one aim: redefining classes as soon as they
  * are changed. Smith bundles together Instrumentation, FileMonitor and
- * JarMonitor
+ * JarMonitor. The folders are watched through the {@link WatchRegistry}, so
+ * several Smith agents watching the same folders share a single scan.
  * 
  * @author Federico Fissore (federico@fissore.org)
  * @see FileMonitor
  * @see JarMonitor
  * @since 1.0
  */
-public class Smith implements FileModifiedListener, JarModifiedListener {
+public class Smith implements FileModifiedListener, JarModifiedListener,
+        ScanCompletedListener {
 
     /** Min period allowed */
     private static final int MONITOR_PERIOD_MIN_VALUE = 1000;
 
+    /** Max number of classes changed before they were loaded that are kept */
+    private static final int PENDING_DEFINITIONS_MAX = 1024;
+
+    /** Time a class changed before it was loaded is kept, if it is not loaded */
+    private static final long PENDING_DEFINITIONS_TTL = 600000;
+
     /** Lists of active Smith agents */
     private static Vector<Smith> smiths = new Vector<Smith>();
 
+    /** Tells if the application signaled it is ready */
+    private static volatile boolean applicationReady;
+
+    /** Follows the redefinitions of all Smith agents */
+    private static final ReloadTracker reloads = new ReloadTracker(
+            WatchRegistry.getInstance().getService(), 100, 120000);
+
     /** Called when the agent is initialized via command line */
     public static void premain(String agentArgs, Instrumentation inst) {
-        initialize(agentArgs, inst);
+        initialize(agentArgs, inst, false);
     }
 
-    /** Called when the agent is initialized after the jvm startup */
+    /**
+     * Called when the agent is initialized after the jvm startup. If a Smith
+     * agent is already active, it is reconfigured rather than started again.
+     * Stopped agents are forgotten, so a new agent replaces them.
+     */
     public static void agentmain(String agentArgs, Instrumentation inst) {
-        initialize(agentArgs, inst);
+        initialize(agentArgs, inst, true);
     }
 
-    private static void initialize(String agentArgs, Instrumentation inst) {
+    private static void initialize(
+        String agentArgs, Instrumentation inst, boolean reuse)
+    {
+        long start = System.nanoTime();
         SmithArgs args = new SmithArgs(agentArgs);
 
         if (!args.isValid()) {
@@ -79,8 +103,34 @@ public class Smith implements FileModifiedListener, JarModifiedListener {
                     "Your parameters are invalid! Check the documentation for the correct syntax");
         }
 
-        Smith smith = new Smith(inst, args);
-        smiths.add(smith);
+        synchronized (smiths) {
+            for (Iterator<Smith> i = smiths.iterator(); i.hasNext();) {
+                if (i.next().isStopped()) {
+                    i.remove();
+                }
+            }
+            if (reuse && !smiths.isEmpty()) {
+                smiths.lastElement().configure(args);
+                return;
+            }
+
+            Smith smith = new Smith(inst, args);
+            smiths.add(smith);
+        }
+        log.info("Smith: initialized in (ms): "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Signals that the application is ready, starting the Smith agents waiting
+     * for it. Applications started with the awaitready argument call this,
+     * directly or through reflection, once their startup is complete.
+     */
+    public static void ready() {
+        applicationReady = true;
+        for (Smith smith : smiths) {
+            smith.start();
+        }
     }
 
     /** Stops all active Smith agents */
@@ -90,16 +140,77 @@ public class Smith implements FileModifiedListener, JarModifiedListener {
         }
     }
 
+    /**
+     * Adds a listener told about the redefinitions of all Smith agents
+     *
+     * @param listener
+     *          the listener
+     */
+    public static void addReloadListener(ReloadListener listener) {
+        reloads.addListener(listener);
+    }
+
+    /** Removes a listener added with addReloadListener */
+    public static void removeReloadListener(ReloadListener listener) {
+        reloads.removeListener(listener);
+    }
+
+    /**
+     * Adds a callback warming up a class after it is redefined, so its code is
+     * compiled again before the application needs it. The callbacks run on a
+     * thread of their own, as many times as the warmup argument tells, and are
+     * not run if it is zero. A callback throwing an exception is not run again
+     * for that redefinition.
+     *
+     * @param className
+     *          the name of the class to warm up
+     * @param warmUp
+     *          the callback running the hot code of the class
+     */
+    public static void addWarmUp(String className, Runnable warmUp) {
+        reloads.addWarmUp(className, warmUp);
+    }
+
+    /** Removes a callback added with addWarmUp */
+    public static void removeWarmUp(String className, Runnable warmUp) {
+        reloads.removeWarmUp(className, warmUp);
+    }
+
+    /**
+     * Gets the last batches of classes redefined by the Smith agents, the
+     * oldest first. The recovery metrics of the last batches may not be known
+     * yet.
+     */
+    public static List<ReloadEvent> getRecentReloads() {
+        return reloads.getHistory();
+    }
+
     private static final Logger log = Logger.getLogger(Smith.class.getName());
     private final Instrumentation inst;
-    private final List<String> classFolders;
-    private final String jarFolder;
-    private final ScheduledExecutorService service;
-    private HashMap<String, Class<?>> loadedClassesMap;
+    private final LoadedClassIndex loadedClasses;
+    private final PendingDefinitions pendingDefinitions;
+    private final ClassDigests classDigests;
+    private final RedefinitionScheduler scheduler;
+    private List<WatchRegistry.Subscription> subscriptions = new ArrayList<WatchRegistry.Subscription>();
+    private volatile boolean sameSourceOnly;
+    private int monitorPeriod;
+    private boolean started;
+    private boolean transforming;
+    private boolean stopped;
+    private ScheduledFuture<?> startTask;
+    private SmithArgs args;
+    private List<String> classFolders;
+    private String jarFolder;
+    private JarMonitor jarMonitor;
+    private volatile ChangeRecorder recorder;
 
     /**
      * Creates and starts a new Smith agent. Please note that periods smaller than
-     * 500 (milliseconds) won't be considered.
+     * 500 (milliseconds) won't be considered. The monitors first run after the
+     * start delay, or when the application signals it is ready if Smith is
+     * configured to wait for it, whichever comes first. Until then Smith does
+     * not see the classes being loaded, so it costs nothing to the startup of
+     * the application.
      * 
      * @param inst
      *          the instrumentation implementation
@@ -108,51 +219,278 @@ public class Smith implements FileModifiedListener, JarModifiedListener {
      */
     public Smith(Instrumentation inst, SmithArgs args) {
         this.inst = inst;
-        this.classFolders = args.getClassFolders();
-        this.jarFolder = args.getJarFolder();
-        int monitorPeriod = MONITOR_PERIOD_MIN_VALUE;
+        this.loadedClasses = new LoadedClassIndex(inst, MONITOR_PERIOD_MIN_VALUE);
+        this.pendingDefinitions = new PendingDefinitions(
+                PENDING_DEFINITIONS_MAX, PENDING_DEFINITIONS_TTL);
+        this.classDigests = new ClassDigests();
+        this.scheduler = new RedefinitionScheduler(this, inst, args);
+        configure(args);
+    }
+
+    /**
+     * Applies new arguments to this Smith agent. The watches of the folders
+     * still watched are kept, so their knowledge of the files is not rebuilt.
+     * The folders are checked before anything is changed, so invalid arguments
+     * leave the agent as it was.
+     * 
+     * @param args
+     *          the {@link SmithArgs} instance
+     * @throws IllegalArgumentException
+     *           if a folder is not the absolute path of a folder
+     */
+    public synchronized void configure(SmithArgs args) {
+        for (String classFolder : args.getClassFolders()) {
+            checkFolder(classFolder);
+        }
+        if (args.getJarFolder() != null) {
+            checkFolder(args.getJarFolder());
+        }
+
+        monitorPeriod = MONITOR_PERIOD_MIN_VALUE;
         if (args.getPeriod() > monitorPeriod) {
             monitorPeriod = args.getPeriod();
         }
 
         log.setLevel(args.getLogLevel());
+        sameSourceOnly = args.isSameSourceOnly();
+        scheduler.configure(args);
+        reloads.setWarmUpIterations(args.getWarmUp());
 
-        service = Executors.newScheduledThreadPool(2);
+        this.args = args;
+        classFolders = args.getClassFolders();
 
-        FileMonitor fileMonitor = new FileMonitor(classFolders, "class");
-        fileMonitor.addModifiedListener(this);
-        service.scheduleWithFixedDelay(fileMonitor, 0, monitorPeriod,
-                TimeUnit.MILLISECONDS);
+        if (args.getJarFolder() == null) {
+            jarMonitor = null;
+        } else if (jarMonitor == null || !args.getJarFolder().equals(jarFolder)) {
+            jarMonitor = new JarMonitor();
+            jarMonitor.addJarModifiedListener(this);
+        }
+        jarFolder = args.getJarFolder();
 
+        List<File> sources = new ArrayList<File>();
+        for (String classFolder : classFolders) {
+            sources.add(new File(classFolder));
+        }
         if (jarFolder != null) {
-            JarMonitor jarMonitor = new JarMonitor(jarFolder);
-            jarMonitor.addJarModifiedListener(this);
-            service.scheduleWithFixedDelay(jarMonitor, 0, monitorPeriod,
-                    TimeUnit.MILLISECONDS);
+            sources.add(new File(jarFolder));
+        }
+        classDigests.configure(args.isSkipDebug(), sources);
+        configureTrace(args.getTrace());
+
+        if (started) {
+            subscribe();
+        } else if (args.isAwaitReady() && applicationReady) {
+            start();
+        } else {
+            if (startTask != null) {
+                startTask.cancel(false);
+                startTask = null;
+            }
+            if (!args.isAwaitReady() || args.getStartDelay() > 0) {
+                startTask = WatchRegistry.getInstance().getService().schedule(new Runnable() {
+                    public void run() {
+                        start();
+                    }
+                }, args.getStartDelay(), TimeUnit.MILLISECONDS);
+            }
         }
 
         log.info("Smith: watching class folders: " + classFolders);
         log.info("Smith: watching jars folder: " + jarFolder);
         log.info("Smith: period between checks (ms): " + monitorPeriod);
+        log.info("Smith: scan budget (entries): " + args.getScanBudget());
+        log.info("Smith: scan budget (ms): " + args.getScanTime());
+        log.info("Smith: max detection latency (ms): " + args.getMaxLatency());
+        log.info("Smith: period between full checks (ms): " + args.getVerifyPeriod());
+        log.info("Smith: redefine only classes loaded from the changed folder or jar: "
+                + sameSourceOnly);
+        log.info("Smith: pause budget (ms): " + args.getPauseBudget());
+        log.info("Smith: max load: " + args.getMaxLoad());
+        log.info("Smith: max deferral (ms): " + args.getMaxDeferral());
+        log.info("Smith: settle time (ms): " + args.getSettle());
+        log.info("Smith: skip changes of debug information only: " + args.isSkipDebug());
+        log.info("Smith: record changes to: " + args.getTrace());
+        log.info("Smith: warm-up runs after redefinitions: " + args.getWarmUp());
+        log.info("Smith: start delay (ms): " + args.getStartDelay());
+        log.info("Smith: wait for the application to be ready: " + args.isAwaitReady());
         log.info("Smith: log level: " + log.getLevel());
     }
 
     /**
-     * Stops this Smith agent
+     * Starts watching the folders, unless they are already watched. The classes
+     * loaded before are found through the instrumentation when they are first
+     * redefined.
+     */
+    private synchronized void start() {
+        if (!started && !stopped) {
+            started = true;
+            if (startTask != null) {
+                startTask.cancel(false);
+                startTask = null;
+            }
+            addTransformers();
+            subscribe();
+            log.info("Smith: started");
+        }
+    }
+
+    /**
+     * Subscribes to the watches of the folders, replacing any previous
+     * subscription. The new subscriptions are made before the previous ones are
+     * cancelled, so the watches of the folders still watched are kept.
+     */
+    private void subscribe() {
+        WatchRegistry registry = WatchRegistry.getInstance();
+        List<WatchRegistry.Subscription> previous = subscriptions;
+        subscriptions = new ArrayList<WatchRegistry.Subscription>();
+
+        for (String classFolder : classFolders) {
+            WatchRegistry.Subscription subscription =
+                    registry.subscribe(classFolder, "class", monitorPeriod);
+            record(subscription, true);
+            subscription.addModifiedListener(this);
+            subscription.addScanCompletedListener(this);
+            configure(subscription.getMonitor());
+            subscription.start();
+            subscriptions.add(subscription);
+        }
+        if (jarMonitor != null) {
+            WatchRegistry.Subscription subscription =
+                    registry.subscribe(jarFolder, "jar", monitorPeriod);
+            record(subscription, false);
+            subscription.addModifiedListener(jarMonitor);
+            subscription.addAddedListener(jarMonitor);
+            subscription.addDeletedListener(jarMonitor);
+            subscription.addScanCompletedListener(this);
+            configure(subscription.getMonitor());
+            subscription.start();
+            subscriptions.add(subscription);
+        }
+
+        for (WatchRegistry.Subscription subscription : previous) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Starts following the classes being loaded
+     */
+    private void addTransformers() {
+        if (!transforming) {
+            transforming = true;
+            inst.addTransformer(loadedClasses);
+            inst.addTransformer(pendingDefinitions);
+            inst.addTransformer(classDigests);
+        }
+    }
+
+    /**
+     * Stops following the classes being loaded
+     */
+    private void removeTransformers() {
+        if (transforming) {
+            transforming = false;
+            inst.removeTransformer(loadedClasses);
+            inst.removeTransformer(pendingDefinitions);
+            inst.removeTransformer(classDigests);
+        }
+    }
+
+    /**
+     * Records the changes notified by a subscription, if changes are recorded
+     * 
+     * @param subscription
+     *          the subscription
+     * @param modified
+     *          false not to record the modified files, for jars whose changed
+     *          entries are recorded when the jar monitor notifies them
+     */
+    private void record(WatchRegistry.Subscription subscription, boolean modified) {
+        if (recorder != null) {
+            subscription.addAddedListener(recorder);
+            if (modified) {
+                subscription.addModifiedListener(recorder);
+            }
+            subscription.addDeletedListener(recorder);
+            subscription.addScanCompletedListener(recorder);
+        }
+    }
+
+    /**
+     * Starts recording the changes found to a trace file, or stops if the path
+     * is null. The recording continues if the path did not change.
      */
-    public void stop() {
-        service.shutdown();
+    private void configureTrace(String path) {
+        if (recorder != null && recorder.getFile().getPath().equals(path)) {
+            return;
+        }
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
+        }
+        if (path != null) {
+            try {
+                recorder = new ChangeRecorder(new File(path));
+            } catch (IOException e) {
+                log.log(Level.SEVERE, "Cannot record changes to " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Applies the scan settings to the monitor of a watch
+     */
+    private void configure(FileMonitor monitor) {
+        monitor.setScanBudget(args.getScanBudget());
+        monitor.setScanTimeBudget(args.getScanTime());
+        monitor.setMaxLatency(args.getMaxLatency());
+        monitor.setVerifyPeriod(args.getVerifyPeriod());
+        monitor.setSettleTime(args.getSettle());
+    }
+
+    /**
+     * Stops this Smith agent. The folders it watched stay watched if other
+     * agents watch them too.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (startTask != null) {
+            startTask.cancel(false);
+            startTask = null;
+        }
+        for (WatchRegistry.Subscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+        subscriptions.clear();
+        removeTransformers();
+        configureTrace(null);
+    }
+
+    /**
+     * Tells if this Smith agent was stopped
+     */
+    synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * When a watch run is complete, Smith redefines the changed classes it
+     * found
+     */
+    public void scanCompleted() {
+        scheduler.flush();
     }
 
     /**
      * When the monitor notifies of a changed class file, Smith will redefine it
+     * once the monitor run is complete
      */
     public void fileModified(FileEvent event) {
         File classFile = event.getSource();
         String className = toClassName(event.getBaseFolder().toString(), classFile.toString());
         try {
             byte[] classBytes = toByteArray(new FileInputStream(classFile));
-            redefineClass(className, classBytes);
+            scheduler.submit(className, classBytes, event.getBaseFolder());
         } catch (Exception e) {
             log.log(Level.SEVERE, "fileModified", e);
         }
@@ -160,18 +498,27 @@ public class Smith implements FileModifiedListener, JarModifiedListener {
 
     /**
      * When the monitor notifies of a changed jar file, Smith will redefine the
-     * changed class file the jar contains
+     * changed class files the jar contains once the monitor run is complete
      */
     public void jarModified(JarEvent event) {
-        String className = toClassName(null, event.getEntryName());
+        ChangeRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.jarModified(event);
+        }
+
         JarFile jar = event.getSource();
-        try {
-            byte[] classBytes = toByteArray(
-                    jar.getInputStream(
-                            getJarEntry(jar, event.getEntryName())));
-            redefineClass(className, classBytes);
-        } catch (Exception e) {
-            log.log(Level.SEVERE, "jarModified", e);
+        for (String entryName : event.getEntryNames()) {
+            if (!entryName.endsWith(".class")) {
+                continue;
+            }
+            String className = toClassName(null, entryName);
+            try {
+                byte[] classBytes = toByteArray(
+                        jar.getInputStream(getJarEntry(jar, entryName)));
+                scheduler.submit(className, classBytes, new File(jar.getName()));
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "jarModified", e);
+            }
         }
     }
 
@@ -190,25 +537,144 @@ public class Smith implements FileModifiedListener, JarModifiedListener {
     protected void redefineClass(String className, byte[] classBytes)
       throws ClassNotFoundException, UnmodifiableClassException
     {
-        HashMap<String, Class<?>> loadedClassesMap = getLoadedClassesMap();
-        Class<?> clazz = loadedClassesMap.get(className);
-        if (clazz != null) {
-            ClassDefinition definition = new ClassDefinition(clazz, classBytes);
-            inst.redefineClasses(new ClassDefinition[] { definition });
+        redefineClass(className, classBytes, null);
+    }
 
-            log.info("Redefined " + className);
+    /**
+     * Redefines every loaded class with the specified name, in a single batch.
+     * If Smith is configured to redefine only classes loaded from the changed
+     * folder or jar, classes loaded from other locations are left alone.
+     * 
+     * @param className
+     *          the class name to redefine
+     * @param classBytes
+     *          the compiled class to redefine
+     * @param source
+     *          the folder or jar file the class was changed in, or null if
+     *          unknown
+     * @throws ClassNotFoundException
+     *           if the class name cannot be found
+     * @throws UnmodifiableClassException
+     *           if the class is unmodifiable
+     */
+    protected void redefineClass(String className, byte[] classBytes, File source)
+      throws ClassNotFoundException, UnmodifiableClassException
+    {
+        List<ClassDefinition> definitions =
+                getClassDefinitions(className, classBytes, source);
+        if (!definitions.isEmpty()) {
+            boolean redefined = false;
+            long start = System.nanoTime();
+            try {
+                inst.redefineClasses(
+                        definitions.toArray(new ClassDefinition[definitions.size()]));
+                redefined = true;
+            } finally {
+                if (!redefined) {
+                    redefinitionFailed(definitions);
+                }
+            }
+
+            long pause = System.nanoTime() - start;
+            log.info("Redefined " + className + " in " + definitions.size()
+                    + " class loader(s)");
+
+            List<Class<?>> classes = new ArrayList<Class<?>>(definitions.size());
+            for (ClassDefinition definition : definitions) {
+                classes.add(definition.getDefinitionClass());
+            }
+            classesRedefined(classes, 0, pause);
         }
     }
 
-    private HashMap<String, Class<?>> getLoadedClassesMap() {
-        if (loadedClassesMap == null) {
-            loadedClassesMap = new HashMap<String, Class<?>>();
-            Class<?>[] loadedClasses = inst.getAllLoadedClasses();
-            for (Class<?> clazz : loadedClasses) {
-                loadedClassesMap.put(clazz.getName(), clazz);
+    /**
+     * Gets the definitions redefining every loaded class with the specified
+     * name. If Smith is configured to redefine only classes loaded from the
+     * changed folder or jar, classes loaded from other locations are left out.
+     * If the class is not loaded yet, the changed bytes are kept to define it
+     * when it is loaded. If Smith is configured to skip changes of debug
+     * information only and the class changed only in its debug information,
+     * there are no definitions.
+     * 
+     * @param className
+     *          the class name to redefine
+     * @param classBytes
+     *          the compiled class to redefine
+     * @param source
+     *          the folder or jar file the class was changed in, or null if
+     *          unknown
+     * @return the definitions, empty if the class is not loaded
+     */
+    List<ClassDefinition> getClassDefinitions(
+        String className, byte[] classBytes, File source)
+    {
+        List<Class<?>> classes = loadedClasses.getClasses(className);
+        if (classes.isEmpty()) {
+            pendingDefinitions.put(className, classBytes, source);
+        } else {
+            pendingDefinitions.remove(className);
+        }
+
+        List<ClassDefinition> definitions = new ArrayList<ClassDefinition>();
+        for (Class<?> clazz : classes) {
+            if (!sameSourceOnly || source == null
+                    || LoadedClassIndex.isLoadedFrom(clazz, source)) {
+                definitions.add(new ClassDefinition(clazz, classBytes));
             }
         }
-        return loadedClassesMap;
+
+        if (definitions.size() < classes.size()) {
+            classDigests.invalidate(className);
+        } else if (!definitions.isEmpty()
+                && classDigests.isDebugOnlyChange(className, classBytes)) {
+            log.info("Skipped redefinition of " + className
+                    + ", only its debug information changed ("
+                    + classDigests.getSkipped() + " skipped so far)");
+            definitions.clear();
+        }
+        return definitions;
+    }
+
+    /**
+     * Called when redefining classes failed, so the next change of the classes
+     * is redefined even if it changes only their debug information
+     * 
+     * @param definitions
+     *          the definitions that failed
+     */
+    void redefinitionFailed(List<ClassDefinition> definitions) {
+        for (ClassDefinition definition : definitions) {
+            classDigests.invalidate(definition.getDefinitionClass().getName());
+        }
+    }
+
+    /**
+     * Called when a batch of classes was redefined, to tell the reload
+     * listeners, warm up the classes and measure the recovery
+     * 
+     * @param classes
+     *          the redefined classes
+     * @param failed
+     *          the number of classes of the batch that could not be redefined
+     * @param pauseNanos
+     *          how long the redefinitions paused the jvm, in nanoseconds
+     */
+    void classesRedefined(List<Class<?>> classes, int failed, long pauseNanos) {
+        reloads.classesRedefined(classes, failed, pauseNanos);
+    }
+
+    /**
+     * Checks that a path is the absolute path of a folder
+     * 
+     * @throws IllegalArgumentException
+     *           if the path is not the absolute path of a folder
+     */
+    private static void checkFolder(String path) {
+        File folder = new File(path);
+        if (!folder.isAbsolute() || !folder.isDirectory()) {
+            throw new IllegalArgumentException("The parameter with value "
+                    + path + " MUST be a folder");
+        }
     }
 
     /**
@@ -241,16 +707,12 @@ public class Smith implements FileModifiedListener, JarModifiedListener {
      *           file
      */
     private static JarEntry getJarEntry(JarFile jar, String entryName) {
-        JarEntry entry = null;
-        for (Enumeration<JarEntry> entries = jar.entries(); entries
-                .hasMoreElements();) {
-            entry = entries.nextElement();
-            if (entry.getName().equals(entryName)) {
-                return entry;
-            }
+        JarEntry entry = jar.getJarEntry(entryName);
+        if (entry == null) {
+            throw new IllegalArgumentException("EntryName " + entryName
+                    + " does not exist in jar " + jar);
         }
-        throw new IllegalArgumentException("EntryName " + entryName
-                + " does not exist in jar " + jar);
+        return entry;
     }
 
     /**
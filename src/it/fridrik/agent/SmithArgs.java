@@ -34,17 +34,65 @@ public class SmithArgs {
     private static final String KEY_JARS = "jars";
     private static final String KEY_PERIOD = "period";
     private static final String KEY_LOG_LEVEL = "loglevel";
-    
+    private static final String KEY_SCAN_BUDGET = "scanbudget";
+    private static final String KEY_SCAN_TIME = "scantime";
+    private static final String KEY_MAX_LATENCY = "maxlatency";
+    private static final String KEY_VERIFY_PERIOD = "verifyperiod";
+    private static final String KEY_LOADERS = "loaders";
+    private static final String KEY_PAUSE_BUDGET = "pausebudget";
+    private static final String KEY_MAX_LOAD = "maxload";
+    private static final String KEY_MAX_DEFERRAL = "maxdeferral";
+    private static final String KEY_LOAD_GAUGE = "loadgauge";
+    private static final String KEY_START_DELAY = "startdelay";
+    private static final String KEY_AWAIT_READY = "awaitready";
+    private static final String KEY_SETTLE = "settle";
+    private static final String KEY_SKIP_DEBUG = "skipdebug";
+    private static final String KEY_TRACE = "trace";
+    private static final String KEY_WARM_UP = "warmup";
+    private static final long DEFAULT_MAX_DEFERRAL = 30000;
+    private static final long DEFAULT_SETTLE = 100;
+    private static final String LOADERS_SOURCE = "source";
+
     private List<String> classFolders;
     private String jarFolder;
     private int period;
     private Level logLevel;
+    private int scanBudget;
+    private long scanTime;
+    private long maxLatency;
+    private long verifyPeriod;
+    private boolean sameSourceOnly;
+    private long pauseBudget;
+    private double maxLoad;
+    private long maxDeferral;
+    private String loadGauge;
+    private long startDelay;
+    private boolean awaitReady;
+    private long settle;
+    private boolean skipDebug;
+    private String trace;
+    private int warmUp;
 
     private SmithArgs() {
         this.classFolders = new ArrayList<String>();
         this.jarFolder = null;
         this.period = -1;
         this.logLevel = Level.WARNING;
+        this.scanBudget = 0;
+        this.scanTime = 0;
+        this.maxLatency = 0;
+        this.verifyPeriod = 0;
+        this.sameSourceOnly = false;
+        this.pauseBudget = 0;
+        this.maxLoad = 0;
+        this.maxDeferral = DEFAULT_MAX_DEFERRAL;
+        this.loadGauge = null;
+        this.startDelay = 0;
+        this.awaitReady = false;
+        this.settle = DEFAULT_SETTLE;
+        this.skipDebug = false;
+        this.trace = null;
+        this.warmUp = 0;
     }
 
     public SmithArgs(String agentArgs) {
@@ -75,6 +123,66 @@ public class SmithArgs {
             if (name.equals(KEY_LOG_LEVEL)) {
                 setLogLevel(value);
             }
+
+            if (name.equals(KEY_SCAN_BUDGET)) {
+                setScanBudget(value);
+            }
+
+            if (name.equals(KEY_SCAN_TIME)) {
+                this.scanTime = parseMillis(value, scanTime);
+            }
+
+            if (name.equals(KEY_MAX_LATENCY)) {
+                this.maxLatency = parseMillis(value, maxLatency);
+            }
+
+            if (name.equals(KEY_VERIFY_PERIOD)) {
+                this.verifyPeriod = parseMillis(value, verifyPeriod);
+            }
+
+            if (name.equals(KEY_LOADERS)) {
+                this.sameSourceOnly = value.trim().equals(LOADERS_SOURCE);
+            }
+
+            if (name.equals(KEY_PAUSE_BUDGET)) {
+                this.pauseBudget = parseMillis(value, pauseBudget);
+            }
+
+            if (name.equals(KEY_MAX_LOAD)) {
+                setMaxLoad(value);
+            }
+
+            if (name.equals(KEY_MAX_DEFERRAL)) {
+                this.maxDeferral = parseMillis(value, maxDeferral);
+            }
+
+            if (name.equals(KEY_LOAD_GAUGE)) {
+                this.loadGauge = value.trim();
+            }
+
+            if (name.equals(KEY_START_DELAY)) {
+                this.startDelay = parseMillis(value, startDelay);
+            }
+
+            if (name.equals(KEY_AWAIT_READY)) {
+                this.awaitReady = Boolean.parseBoolean(value.trim());
+            }
+
+            if (name.equals(KEY_SETTLE)) {
+                this.settle = parseMillis(value, settle);
+            }
+
+            if (name.equals(KEY_SKIP_DEBUG)) {
+                this.skipDebug = Boolean.parseBoolean(value.trim());
+            }
+
+            if (name.equals(KEY_TRACE)) {
+                this.trace = value.trim();
+            }
+
+            if (name.equals(KEY_WARM_UP)) {
+                setWarmUp(value);
+            }
         }
     }
 
@@ -105,6 +213,124 @@ public class SmithArgs {
         return period;
     }
 
+    /**
+     * Gets the max number of entries checked by a single scan, or zero if there
+     * is no limit
+     */
+    public int getScanBudget() {
+        return scanBudget;
+    }
+
+    /**
+     * Gets the max time in milliseconds spent by a single scan, or zero if there
+     * is no limit
+     */
+    public long getScanTime() {
+        return scanTime;
+    }
+
+    /**
+     * Gets the max time in milliseconds a full walk of the monitored folders may
+     * take, or zero if there is no limit
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * Gets the time in milliseconds between full checks of the class files, or
+     * zero if every file is checked on every scan
+     */
+    public long getVerifyPeriod() {
+        return verifyPeriod;
+    }
+
+    /**
+     * Tells if only the classes loaded from the changed folder or jar are
+     * redefined, rather than every loaded class with the changed name
+     */
+    public boolean isSameSourceOnly() {
+        return sameSourceOnly;
+    }
+
+    /**
+     * Gets the max time in milliseconds a single redefinition should pause the
+     * virtual machine, or zero if there is no limit
+     */
+    public long getPauseBudget() {
+        return pauseBudget;
+    }
+
+    /**
+     * Gets the load, from 0 to 1, above which redefinitions are deferred, or
+     * zero if they are never deferred
+     */
+    public double getMaxLoad() {
+        return maxLoad;
+    }
+
+    /**
+     * Gets the max time in milliseconds a redefinition can be deferred
+     */
+    public long getMaxDeferral() {
+        return maxDeferral;
+    }
+
+    /**
+     * Gets the name of the {@link LoadGauge} class measuring the load, or null
+     * to measure the CPU usage
+     */
+    public String getLoadGauge() {
+        return loadGauge;
+    }
+
+    /**
+     * Gets the time in milliseconds before the first check
+     */
+    public long getStartDelay() {
+        return startDelay;
+    }
+
+    /**
+     * Tells if the first check waits for the application to call
+     * {@link Smith#ready()}, or for the start delay if one is set
+     */
+    public boolean isAwaitReady() {
+        return awaitReady;
+    }
+
+    /**
+     * Gets the time in milliseconds a changed file must stay unmodified before
+     * it is read
+     */
+    public long getSettle() {
+        return settle;
+    }
+
+    /**
+     * Tells if changed classes differing from the loaded ones only in their
+     * debug information, such as line numbers, are not redefined
+     */
+    public boolean isSkipDebug() {
+        return skipDebug;
+    }
+
+    /**
+     * Gets the path of the file the changes found are recorded to, or null if
+     * they are not recorded
+     */
+    public String getTrace() {
+        return trace;
+    }
+
+    /**
+     * Gets the number of times the warm-up callbacks of the redefined classes
+     * are run after each redefinition, zero if they are not run
+     */
+    public int getWarmUp() {
+        return warmUp;
+    }
+
     public boolean isValid() {
         return !classFolders.isEmpty();
     }
@@ -140,6 +366,30 @@ public class SmithArgs {
         }
     }
 
+    private void setScanBudget(String scanBudget) {
+        try {
+            this.scanBudget = Math.max(0, Integer.parseInt(scanBudget.trim()));
+        } catch (NumberFormatException e) {
+            this.scanBudget = 0;
+        }
+    }
+
+    private void setWarmUp(String warmUp) {
+        try {
+            this.warmUp = Math.max(0, Integer.parseInt(warmUp.trim()));
+        } catch (NumberFormatException e) {
+            this.warmUp = 0;
+        }
+    }
+
+    private void setMaxLoad(String maxLoad) {
+        try {
+            this.maxLoad = Math.max(0, Double.parseDouble(maxLoad.trim()));
+        } catch (NumberFormatException e) {
+            this.maxLoad = 0;
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -154,9 +404,74 @@ public class SmithArgs {
         sb.append(",").append(KEY_LOG_LEVEL).append("=")
                 .append(logLevel.toString());
 
+        if (scanBudget > 0) {
+            sb.append(",").append(KEY_SCAN_BUDGET).append("=").append(scanBudget);
+        }
+
+        if (scanTime > 0) {
+            sb.append(",").append(KEY_SCAN_TIME).append("=").append(scanTime);
+        }
+
+        if (maxLatency > 0) {
+            sb.append(",").append(KEY_MAX_LATENCY).append("=").append(maxLatency);
+        }
+
+        if (verifyPeriod > 0) {
+            sb.append(",").append(KEY_VERIFY_PERIOD).append("=").append(verifyPeriod);
+        }
+
+        if (sameSourceOnly) {
+            sb.append(",").append(KEY_LOADERS).append("=").append(LOADERS_SOURCE);
+        }
+
+        if (pauseBudget > 0) {
+            sb.append(",").append(KEY_PAUSE_BUDGET).append("=").append(pauseBudget);
+        }
+
+        if (maxLoad > 0) {
+            sb.append(",").append(KEY_MAX_LOAD).append("=").append(maxLoad);
+            sb.append(",").append(KEY_MAX_DEFERRAL).append("=").append(maxDeferral);
+        }
+
+        if (loadGauge != null) {
+            sb.append(",").append(KEY_LOAD_GAUGE).append("=").append(loadGauge);
+        }
+
+        if (startDelay > 0) {
+            sb.append(",").append(KEY_START_DELAY).append("=").append(startDelay);
+        }
+
+        if (awaitReady) {
+            sb.append(",").append(KEY_AWAIT_READY).append("=").append(awaitReady);
+        }
+
+        if (settle != DEFAULT_SETTLE) {
+            sb.append(",").append(KEY_SETTLE).append("=").append(settle);
+        }
+
+        if (skipDebug) {
+            sb.append(",").append(KEY_SKIP_DEBUG).append("=").append(skipDebug);
+        }
+
+        if (trace != null) {
+            sb.append(",").append(KEY_TRACE).append("=").append(trace);
+        }
+
+        if (warmUp > 0) {
+            sb.append(",").append(KEY_WARM_UP).append("=").append(warmUp);
+        }
+
         return sb.toString();
     }
 
+    private static long parseMillis(String millis, long defaultMillis) {
+        try {
+            return Math.max(0, Long.parseLong(millis.trim()));
+        } catch (NumberFormatException e) {
+            return defaultMillis;
+        }
+    }
+
     private static String parseFolderPath(String folder) {
         if (folder != null) {
             String trimmed = folder.trim();
@@ -0,0 +1,161 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the changes notified by monitors to a trace file, which can be read
+ * back as a {@link ChangeTrace} to replay the changes with the same timing.
+ * Add the recorder as listener to the monitors or watches to record, and
+ * close it once done. The trace is flushed after every completed scan, so it
+ * is readable while it is being recorded. If the trace cannot be written, the
+ * recording stops and the error is logged.
+ */
+public class ChangeRecorder implements FileAddedListener, FileModifiedListener,
+        FileDeletedListener, JarModifiedListener, ScanCompletedListener {
+
+    private final static Logger log = Logger.getLogger(ChangeRecorder.class.getName());
+
+    private final File file;
+    private final List<File> folders = new ArrayList<File>();
+    private DataOutputStream out;
+    private long lastChange;
+
+    /**
+     * Creates a recorder, overwriting the trace file
+     *
+     * @param file
+     *          the trace file
+     * @throws IOException
+     *           if the trace file cannot be created
+     */
+    public ChangeRecorder(File file) throws IOException {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        this.lastChange = System.currentTimeMillis();
+        out.writeInt(ChangeTrace.MAGIC);
+        out.writeShort(ChangeTrace.VERSION);
+        out.writeLong(lastChange);
+    }
+
+    /**
+     * Gets the trace file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public void fileAdded(FileEvent event) {
+        record(ChangeTrace.Type.ADDED, event.getBaseFolder(), event.getSource(), null);
+    }
+
+    public void fileModified(FileEvent event) {
+        record(ChangeTrace.Type.MODIFIED, event.getBaseFolder(), event.getSource(), null);
+    }
+
+    public void fileDeleted(FileEvent event) {
+        record(ChangeTrace.Type.DELETED, event.getBaseFolder(), event.getSource(), null);
+    }
+
+    public void jarModified(JarEvent event) {
+        File jar = new File(event.getSource().getName());
+        record(ChangeTrace.Type.JAR_MODIFIED, jar.getParentFile(), jar,
+                event.getEntryNames());
+    }
+
+    public synchronized void scanCompleted() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Stops recording and closes the trace file
+     */
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "close", e);
+            }
+            out = null;
+        }
+    }
+
+    private synchronized void record(ChangeTrace.Type type, File baseFolder,
+        File changed, List<String> entryNames)
+    {
+        if (out == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try {
+            out.writeByte(type.ordinal());
+            out.writeInt((int) Math.max(0, now - lastChange));
+            int folderIndex = folders.indexOf(baseFolder);
+            if (folderIndex < 0) {
+                folderIndex = folders.size();
+                folders.add(baseFolder);
+                out.writeShort(folderIndex);
+                out.writeUTF(baseFolder.getPath());
+            } else {
+                out.writeShort(folderIndex);
+            }
+            out.writeUTF(getRelativePath(baseFolder, changed));
+            out.writeLong((type == ChangeTrace.Type.DELETED) ? -1 : changed.length());
+            if (entryNames != null) {
+                out.writeInt(entryNames.size());
+                for (String entryName : entryNames) {
+                    out.writeUTF(entryName);
+                }
+            }
+            lastChange = now;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        log.log(Level.SEVERE, "Cannot write the change trace " + file
+                + ", recording stopped", e);
+        close();
+    }
+
+    private static String getRelativePath(File baseFolder, File changed) {
+        String path = changed.getPath();
+        String base = baseFolder.getPath();
+        if (path.startsWith(base + File.separator)) {
+            path = path.substring(base.length() + 1);
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+}
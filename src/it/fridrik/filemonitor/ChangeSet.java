@@ -0,0 +1,124 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The files added, modified and deleted between two snapshots. Files are
+ * listed by folder, and by name within a folder.
+ *
+ * @see Snapshot#diff(Snapshot)
+ */
+public final class ChangeSet {
+
+    private final List<File> baseFolders;
+    final List<File> added = new ArrayList<File>();
+    final List<File> modified = new ArrayList<File>();
+    final List<File> deleted = new ArrayList<File>();
+
+    ChangeSet(List<File> baseFolders) {
+        this.baseFolders = baseFolders;
+    }
+
+    /**
+     * Gets the absolute paths of the files added
+     */
+    public List<File> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    /**
+     * Gets the absolute paths of the files modified
+     */
+    public List<File> getModified() {
+        return Collections.unmodifiableList(modified);
+    }
+
+    /**
+     * Gets the absolute paths of the files deleted
+     */
+    public List<File> getDeleted() {
+        return Collections.unmodifiableList(deleted);
+    }
+
+    /**
+     * Tells if no file changed
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && modified.isEmpty() && deleted.isEmpty();
+    }
+
+    /**
+     * Gets the number of files changed
+     */
+    public int size() {
+        return added.size() + modified.size() + deleted.size();
+    }
+
+    /**
+     * Gets the monitored folder a changed file was found in
+     *
+     * @param file
+     *          the absolute path of the changed file
+     * @return the folder, or null if the file is not in any monitored folder
+     */
+    public File getBaseFolder(File file) {
+        String path = file.getPath();
+        File baseFolder = null;
+        for (File folder : baseFolders) {
+            String folderPath = folder.getPath();
+            if (path.startsWith(folderPath) && path.length() > folderPath.length()
+                    && path.charAt(folderPath.length()) == File.separatorChar
+                    && (baseFolder == null
+                        || folderPath.length() > baseFolder.getPath().length())) {
+                baseFolder = folder;
+            }
+        }
+        return baseFolder;
+    }
+
+    /**
+     * Gets the changes of the files selected by a matcher
+     *
+     * @param matcher
+     *          the matcher
+     * @return the changes selected
+     */
+    public ChangeSet select(FileMatcher matcher) {
+        ChangeSet selected = new ChangeSet(baseFolders);
+        select(added, matcher, selected.added);
+        select(modified, matcher, selected.modified);
+        select(deleted, matcher, selected.deleted);
+        return selected;
+    }
+
+    private static void select(List<File> files, FileMatcher matcher, List<File> selected) {
+        for (File file : files) {
+            if (matcher.matches(file.getName())) {
+                selected.add(file);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "added " + added + ", modified " + modified + ", deleted " + deleted;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+/**
+ * Listens for all the changes found by a run of a monitor at once
+ */
+public interface ChangeSetListener {
+
+    /**
+     * Called at the end of a run that found changes
+     *
+     * @param changes
+     *          the changes found
+     * @param snapshot
+     *          the files known at the end of the run
+     */
+    public void filesChanged(ChangeSet changes, Snapshot snapshot);
+}
@@ -0,0 +1,211 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A sequence of file changes recorded by a {@link ChangeRecorder}, read back to
+ * replay it. The trace is a binary file starting with a header, the magic
+ * number, the format version and the time the recording started, followed by
+ * one record per change:
+ * <ul>
+ * <li>the change type, as a byte</li>
+ * <li>the time elapsed since the previous change, in milliseconds, as an int</li>
+ * <li>the index of the base folder, as a short, followed by the folder path the
+ * first time the folder appears</li>
+ * <li>the path of the changed file relative to the base folder</li>
+ * <li>the size of the file, as a long, or -1 if it was deleted</li>
+ * <li>for changed jars, the number of changed entries and their names</li>
+ * </ul>
+ */
+public class ChangeTrace {
+
+    static final int MAGIC = 0x534D5452;
+    static final short VERSION = 1;
+
+    /** The kinds of recorded changes */
+    public enum Type {
+        ADDED, MODIFIED, DELETED, JAR_MODIFIED
+    }
+
+    /**
+     * A recorded change
+     */
+    public static class Change {
+        private final Type type;
+        private final long time;
+        private final File baseFolder;
+        private final String path;
+        private final long size;
+        private final List<String> entryNames;
+
+        Change(Type type, long time, File baseFolder, String path, long size,
+            List<String> entryNames)
+        {
+            this.type = type;
+            this.time = time;
+            this.baseFolder = baseFolder;
+            this.path = path;
+            this.size = size;
+            this.entryNames = entryNames;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Gets the time of the change, in milliseconds since the recording
+         * started
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public File getBaseFolder() {
+            return baseFolder;
+        }
+
+        /**
+         * Gets the path of the changed file relative to the base folder, with
+         * '/' as separator
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the size of the file, or -1 if it was deleted
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the names of the changed entries of a jar, empty for the other
+         * changes
+         */
+        public List<String> getEntryNames() {
+            return entryNames;
+        }
+    }
+
+    private final long started;
+    private final List<Change> changes;
+
+    private ChangeTrace(long started, List<Change> changes) {
+        this.started = started;
+        this.changes = changes;
+    }
+
+    /**
+     * Reads a trace file. A trace cut short, as when the recording jvm was
+     * killed, is read up to its last complete change.
+     *
+     * @param file
+     *          the trace file
+     * @return the trace
+     * @throws IOException
+     *           if the file cannot be read or is not a trace
+     */
+    public static ChangeTrace read(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a trace
+     *
+     * @param stream
+     *          the trace
+     * @return the trace
+     * @throws IOException
+     *           if the stream cannot be read or is not a trace
+     */
+    public static ChangeTrace read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a change trace");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported change trace version " + version);
+        }
+        long started = in.readLong();
+
+        List<File> folders = new ArrayList<File>();
+        List<Change> changes = new ArrayList<Change>();
+        long time = 0;
+        try {
+            while (true) {
+                int typeIndex = in.readByte();
+                if (typeIndex < 0 || typeIndex >= Type.values().length) {
+                    throw new IOException("Invalid change type " + typeIndex);
+                }
+                Type type = Type.values()[typeIndex];
+                time += in.readInt();
+                int folderIndex = in.readShort();
+                if (folderIndex == folders.size()) {
+                    folders.add(new File(in.readUTF()));
+                }
+                File folder = folders.get(folderIndex);
+                String path = in.readUTF();
+                long size = in.readLong();
+
+                List<String> entryNames = Collections.emptyList();
+                if (type == Type.JAR_MODIFIED) {
+                    int count = in.readInt();
+                    entryNames = new ArrayList<String>(count);
+                    for (int i = 0; i < count; i++) {
+                        entryNames.add(in.readUTF());
+                    }
+                }
+                changes.add(new Change(type, time, folder, path, size, entryNames));
+            }
+        } catch (EOFException e) {
+            // the end of the trace
+        }
+        return new ChangeTrace(started, changes);
+    }
+
+    /**
+     * Gets the time the recording started, in milliseconds since the epoch
+     */
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * Gets the recorded changes, in order
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The listeners of the changes found by a monitor, either all of them or the
+ * ones of the files selected by a matcher
+ */
+class FileListeners {
+
+    final List<FileAddedListener> fileAddedListeners = new LinkedList<FileAddedListener>();
+    final List<FileDeletedListener> fileDeletedListeners = new LinkedList<FileDeletedListener>();
+    final List<FileModifiedListener> fileModifiedListeners = new LinkedList<FileModifiedListener>();
+    final List<ChangeSetListener> changeSetListeners = new LinkedList<ChangeSetListener>();
+
+    boolean isEmpty() {
+        return fileAddedListeners.isEmpty() && fileDeletedListeners.isEmpty()
+                && fileModifiedListeners.isEmpty() && changeSetListeners.isEmpty();
+    }
+
+    /**
+     * Notifies the changes found by a run, to the change set listeners and
+     * then, one file at a time, to the file listeners
+     */
+    void notify(ChangeSet changes, Snapshot snapshot) {
+        for (ChangeSetListener listener : changeSetListeners) {
+            listener.filesChanged(changes, snapshot);
+        }
+        if (!fileAddedListeners.isEmpty()) {
+            for (File file : changes.added) {
+                FileEvent event = new FileEvent(changes.getBaseFolder(file), file);
+                for (FileAddedListener listener : fileAddedListeners) {
+                    listener.fileAdded(event);
+                }
+            }
+        }
+        if (!fileModifiedListeners.isEmpty()) {
+            for (File file : changes.modified) {
+                FileEvent event = new FileEvent(changes.getBaseFolder(file), file);
+                for (FileModifiedListener listener : fileModifiedListeners) {
+                    listener.fileModified(event);
+                }
+            }
+        }
+        if (!fileDeletedListeners.isEmpty()) {
+            for (File file : changes.deleted) {
+                FileEvent event = new FileEvent(changes.getBaseFolder(file), file);
+                for (FileDeletedListener listener : fileDeletedListeners) {
+                    listener.fileDeleted(event);
+                }
+            }
+        }
+    }
+}
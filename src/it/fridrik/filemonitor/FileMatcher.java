@@ -0,0 +1,109 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.util.regex.Pattern;
+
+/**
+ * Selects the files a {@link FileMonitor} watches by their name, either by
+ * extension or by a glob pattern. Two matchers are equal if they select files
+ * the same way, so they can be used as keys.
+ */
+public final class FileMatcher {
+
+    private final String extension;
+    private final String glob;
+    private final Pattern pattern;
+
+    private FileMatcher(String extension, String glob, Pattern pattern) {
+        this.extension = extension;
+        this.glob = glob;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Creates a matcher of the file names ending with an extension
+     *
+     * @param extension
+     *          the extension, without the dot
+     * @return the matcher
+     */
+    public static FileMatcher forExtension(String extension) {
+        return new FileMatcher(extension, null, null);
+    }
+
+    /**
+     * Creates a matcher of the file names matching a glob pattern, where
+     * <code>*</code> matches any number of characters and <code>?</code>
+     * matches one character. The pattern is matched against the name of the
+     * file, without its folder.
+     *
+     * @param glob
+     *          the glob pattern, such as <code>*.class</code>
+     * @return the matcher
+     */
+    public static FileMatcher forGlob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int literal = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal < i) {
+                    regex.append(Pattern.quote(glob.substring(literal, i)));
+                }
+                regex.append((c == '*') ? ".*" : ".");
+                literal = i + 1;
+            }
+        }
+        if (literal < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literal)));
+        }
+        return new FileMatcher(null, glob, Pattern.compile(regex.toString(), Pattern.DOTALL));
+    }
+
+    /**
+     * Tells if a file name is matched
+     *
+     * @param name
+     *          the name of the file, without its folder
+     */
+    public boolean matches(String name) {
+        if (extension != null) {
+            return name.endsWith(extension);
+        }
+        return pattern.matcher(name).matches();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FileMatcher)) {
+            return false;
+        }
+        FileMatcher other = (FileMatcher) obj;
+        return (extension != null) ? extension.equals(other.extension)
+                : glob.equals(other.glob);
+    }
+
+    @Override
+    public int hashCode() {
+        return (extension != null) ? extension.hashCode() : 31 * glob.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return (extension != null) ? "*" + extension : glob;
+    }
+}
@@ -19,99 +19,510 @@ package it.fridrik.filemonitor;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * FileMonitor (the name says it all) monitors a folder and its subfolders for
- * file changes (added, removed and modified). Only one file extension can be
- * monitored for each instance of FileMonitor. For each change found, an event
- * is raised. File renames are notified as a file removal and a file addition,
- * in this order. FileMonitor implements Runnable and expects you to start it
- * through a ScheduledExecutorService
+ * file changes (added, removed and modified). The files monitored are selected
+ * by one or more matchers, by extension or glob pattern, which all share a
+ * single walk: each folder is listed once per run and each entry is checked
+ * once, whatever the number of matchers. For each change found, an event
+ * is raised, to the listeners of the matchers selecting the changed file and
+ * to the listeners of all the changes. A file deleted is notified only if it
+ * is still missing at a later check, so a file deleted and created again, or
+ * replaced by renaming another file over it, is notified as modified. File
+ * renames are thus notified as a file addition followed, at a later check, by
+ * a file removal. Hidden and editor backup files are ignored. FileMonitor
+ * implements Runnable and expects you to start it through a
+ * ScheduledExecutorService
+ * <p>
+ * By default every run walks all the monitored folders. On very large trees
+ * the walk can be spread over several runs by setting a scan budget, in
+ * entries or in milliseconds: each run then stops once the budget is spent and
+ * the next run resumes where the previous one stopped. Folders where changes
+ * were recently found are checked on every run, ahead of the remaining ones.
+ * The max latency bounds how long a full walk may take: when it would be
+ * exceeded, the budget is ignored until the walk is complete.
+ * <p>
+ * When a verify period is set, folders whose modification time did not change
+ * are not listed again and their files are not checked, except during a full
+ * check done once per verify period.
+ * <p>
+ * Each run ends by taking an immutable {@link Snapshot} of the files known,
+ * sharing the unchanged folders with the previous one, and by notifying the
+ * differences between the two snapshots: as one {@link ChangeSet} to the
+ * change set listeners, then as one event per file to the file listeners.
+ * <p>
+ * A matcher added after the first run restarts the walk, and the files it
+ * selects are notified as added once the walk is complete.
  * 
  * @author Federico Fissore (federico@fissore.org)
  * @since 1.0
  */
 public class FileMonitor implements Runnable {
 
+    /** How long a folder stays hot after a change was found in it */
+    private static final long HOT_FOLDER_MILLIS = 60000;
+
+    /** Max number of hot folders checked on every run */
+    private static final int HOT_FOLDERS_MAX = 256;
+
     private class FolderWatcher {
-        private final File folder;
-        private final HashMap<File, Long> fileMap = new HashMap<File, Long>();
-        
+        private final FolderNode root;
+        private final LinkedList<FolderNode> pendingFolders = new LinkedList<FolderNode>();
+        private final LinkedHashMap<FolderNode, Long> hotFolders = new LinkedHashMap<FolderNode, Long>();
+        private long passStarted;
+        private long lastVerified;
+        private boolean verifying;
+
         private FolderWatcher(File folder) {
-            this.folder = folder;
+            this.root = new FolderNode(null, folder);
         }
 
         /**
-         * Checks for files deletion
+         * Checks for files addition, modification and deletion until the budget
+         * is spent
+         * 
+         * @param budget
+         *          the budget of this run
+         * @param now
+         *          the time this run started
+         * @param interval
+         *          the time elapsed since the previous run
          */
-        protected void checkDeletion() {
-            List<File> filesToDelete = new LinkedList<File>();
-            for (File file : fileMap.keySet()) {
-                if (!file.exists()) {
-                    filesToDelete.add(file);
-                    notifyDeletedListeners(new FileEvent(folder, file));
+        protected void scan(ScanBudget budget, long now, long interval) {
+            if (budget.isLimited()) {
+                checkHotFolders(budget, now);
+            }
+
+            if (pendingFolders.isEmpty()) {
+                if (budget.isExhausted()) {
+                    return;
+                }
+                pendingFolders.add(root);
+                passStarted = now;
+                verifying = verifyPeriod <= 0 || now - lastVerified >= verifyPeriod;
+                if (verifying) {
+                    lastVerified = now;
                 }
             }
-            
-            for (File file : filesToDelete) {
-                fileMap.remove(file);
+
+            if (maxLatency > 0 && now + interval - passStarted >= maxLatency) {
+                budget = ScanBudget.UNLIMITED;
+            }
+
+            while (!pendingFolders.isEmpty() && !budget.isExhausted()) {
+                FolderNode node = pendingFolders.removeFirst();
+                if (!node.deleted) {
+                    FolderNode[] subfolders = checkFolder(node, budget, now, verifying);
+                    for (int i = subfolders.length - 1; i >= 0; i--) {
+                        pendingFolders.addFirst(subfolders[i]);
+                    }
+                }
             }
         }
 
-        protected void checkAddAndModify() {
-            checkAddAndModify(folder);
+        /**
+         * Checks the folders where changes were recently found, ignoring their
+         * subfolders already known
+         */
+        private void checkHotFolders(ScanBudget budget, long now) {
+            Iterator<Map.Entry<FolderNode, Long>> hotIterator =
+                    hotFolders.entrySet().iterator();
+            List<FolderNode> hot = new ArrayList<FolderNode>();
+            while (hotIterator.hasNext()) {
+                Map.Entry<FolderNode, Long> entry = hotIterator.next();
+                if (entry.getKey().deleted
+                        || now - entry.getValue().longValue() > HOT_FOLDER_MILLIS) {
+                    hotIterator.remove();
+                } else {
+                    hot.add(entry.getKey());
+                }
+            }
+
+            for (FolderNode node : hot) {
+                if (budget.isExhausted()) {
+                    break;
+                }
+                for (FolderNode subfolder : checkFolder(node, budget, now, true)) {
+                    if (!subfolder.isListed()) {
+                        pendingFolders.addFirst(subfolder);
+                    }
+                }
+            }
         }
-        
+
         /**
-         * Checks for file addition and modification
+         * Checks for file addition, modification and deletion in a single folder.
+         * Unless a full check is requested, a folder whose modification time did
+         * not change since it was listed is not listed again and its files are
+         * not checked, so files rewritten in place are only found by a full
+         * check. A matched name that was a file at the last check is taken for
+         * a file without asking, so a known file costs two stat calls, for its
+         * modification time and size, and any other entry one.
          * 
-         * @param currentFolder
-         *          the folder to monitor
+         * @param node
+         *          the folder to check
+         * @param budget
+         *          the budget to charge for the entries found
+         * @param now
+         *          the time this run started
+         * @param full
+         *          true to check the files even if the folder did not change
+         * @return the subfolders of the checked folder
          */
-        protected void checkAddAndModify(File currentFolder) {
-            for (File file : getFiles(currentFolder)) {
-                if (file.isDirectory()) {
-                    checkAddAndModify(file);
-                } else {
-                    Long lastModified = fileMap.get(file);
-                    if (lastModified != null) {
-                        if (lastModified != file.lastModified()) {
-                            fileMap.put(file, file.lastModified());
-                            notifyModifiedListeners(new FileEvent(folder, file));
+        protected FolderNode[] checkFolder(
+            FolderNode node, ScanBudget budget, long now, boolean full)
+        {
+            long folderLastModified = node.folder.lastModified();
+            if (!full && node.isUnchanged(folderLastModified)) {
+                budget.charge(1);
+                return node.subfolders;
+            }
+
+            String[] names = getFiles(node.folder);
+            if (names == null) {
+                names = FolderNode.NO_NAMES;
+            }
+            Arrays.sort(names);
+
+            NameTable knownNames = node.fileNames;
+            List<String> fileNames = new ArrayList<String>(names.length);
+            List<String> folderNames = new ArrayList<String>();
+            int known = 0;
+            for (String name : names) {
+                boolean matched = isMatched(name);
+                if (matched) {
+                    while (known < knownNames.size()
+                            && knownNames.compareTo(known, name) < 0) {
+                        known++;
+                    }
+                    if (known < knownNames.size()
+                            && knownNames.compareTo(known, name) == 0) {
+                        fileNames.add(name);
+                        continue;
+                    }
+                }
+                if (new File(node.folder, name).isDirectory()) {
+                    folderNames.add(name);
+                } else if (matched) {
+                    fileNames.add(name);
+                }
+            }
+            budget.charge(fileNames.size() + folderNames.size() + 1);
+
+            boolean wasListed = node.isListed();
+            node.unsettled = false;
+            long checked = System.currentTimeMillis();
+            boolean changed = checkFiles(node, fileNames, now, checked);
+            changed |= checkSubfolders(node, folderNames, now);
+            if (expireTombstones(node, fileNames, now) || changed) {
+                node.markChanged();
+            }
+            node.lastModified = folderLastModified;
+            node.listed = now;
+
+            if (changed && wasListed) {
+                hotFolders.remove(node);
+                hotFolders.put(node, Long.valueOf(now));
+                if (hotFolders.size() > HOT_FOLDERS_MAX) {
+                    hotFolders.remove(hotFolders.keySet().iterator().next());
+                }
+            }
+            return node.subfolders;
+        }
+
+        /**
+         * Compares the sorted file names just listed with the ones previously
+         * known. Files no longer found become tombstones, and files found again
+         * replace their tombstone. Changes to files modified within the settle
+         * time are not recorded until a later check, so each change is notified
+         * once the file is completely written. A known file that changed and
+         * turns out to be a folder now is handled as deleted, and the folder is
+         * found at the next check.
+         * 
+         * @param node
+         *          the folder checked
+         * @param names
+         *          the sorted names of the files found
+         * @param now
+         *          the time this run started
+         * @param checked
+         *          the time the folder was listed
+         * @return true if any file was added, modified or deleted
+         */
+        private boolean checkFiles(
+            FolderNode node, List<String> names, long now, long checked)
+        {
+            NameTable oldNames = node.fileNames;
+            long[] oldLastModified = node.fileLastModified;
+            long[] oldSizes = node.fileSizes;
+            String[] newNames = new String[names.size()];
+            long[] newLastModified = new long[newNames.length];
+            long[] newSizes = new long[newNames.length];
+            int count = 0;
+            boolean changed = false;
+            boolean sameNames = true;
+
+            int i = 0;
+            for (String name : names) {
+                while (i < oldNames.size() && oldNames.compareTo(i, name) < 0) {
+                    node.addTombstone(new FolderNode.Tombstone(oldNames.get(i),
+                            oldLastModified[i], oldSizes[i], null, now, runCount));
+                    changed = true;
+                    sameNames = false;
+                    i++;
+                }
+
+                File file = new File(node.folder, name);
+                long lastModified = file.lastModified();
+                long size = file.length();
+                boolean settled = checked - lastModified >= settleTime
+                        || lastModified > checked + settleTime;
+                if (i < oldNames.size() && oldNames.compareTo(i, name) == 0) {
+                    if ((oldLastModified[i] != lastModified || oldSizes[i] != size)
+                            && file.isDirectory()) {
+                        node.addTombstone(new FolderNode.Tombstone(name,
+                                oldLastModified[i], oldSizes[i], null, now, runCount));
+                        changed = true;
+                        sameNames = false;
+                        i++;
+                        continue;
+                    }
+                    newNames[count] = name;
+                    if (oldLastModified[i] != lastModified || oldSizes[i] != size) {
+                        if (settled) {
+                            changed = true;
+                        } else {
+                            node.unsettled = true;
+                            lastModified = oldLastModified[i];
+                            size = oldSizes[i];
                         }
+                    }
+                    i++;
+                } else if (settled) {
+                    newNames[count] = name;
+                    node.removeTombstone(name, false);
+                    changed = true;
+                    sameNames = false;
+                } else {
+                    node.unsettled = true;
+                    continue;
+                }
+                newLastModified[count] = lastModified;
+                newSizes[count] = size;
+                count++;
+            }
+            for (; i < oldNames.size(); i++) {
+                node.addTombstone(new FolderNode.Tombstone(oldNames.get(i),
+                        oldLastModified[i], oldSizes[i], null, now, runCount));
+                changed = true;
+                sameNames = false;
+            }
+
+            if (count == 0) {
+                node.fileNames = NameTable.EMPTY;
+                node.fileLastModified = FolderNode.NO_TIMES;
+                node.fileSizes = FolderNode.NO_TIMES;
+            } else {
+                node.fileNames = sameNames ? oldNames : NameTable.of(newNames, count);
+                node.fileLastModified = (count == newNames.length)
+                        ? newLastModified : Arrays.copyOf(newLastModified, count);
+                node.fileSizes = (count == newNames.length)
+                        ? newSizes : Arrays.copyOf(newSizes, count);
+            }
+            return changed;
+        }
+
+        /**
+         * Compares the sorted subfolder names just listed with the ones
+         * previously known. Subfolders no longer found become tombstones, and
+         * subfolders found again are compared with what they contained.
+         * 
+         * @return true if any subfolder was added or deleted
+         */
+        private boolean checkSubfolders(FolderNode node, List<String> names, long now) {
+            FolderNode[] oldSubfolders = node.subfolders;
+            FolderNode[] newSubfolders = new FolderNode[names.size()];
+            boolean changed = false;
+
+            int i = 0;
+            for (int j = 0; j < newSubfolders.length; j++) {
+                String name = names.get(j);
+                while (i < oldSubfolders.length
+                        && oldSubfolders[i].getName().compareTo(name) < 0) {
+                    bury(node, oldSubfolders[i], now);
+                    changed = true;
+                    i++;
+                }
+
+                if (i < oldSubfolders.length && oldSubfolders[i].getName().equals(name)) {
+                    newSubfolders[j] = oldSubfolders[i];
+                    i++;
+                } else {
+                    FolderNode.Tombstone tombstone = node.removeTombstone(name, true);
+                    if (tombstone == null) {
+                        newSubfolders[j] = new FolderNode(node, new File(node.folder, name));
                     } else {
-                        fileMap.put(file, file.lastModified());
-                        notifyAddedListeners(new FileEvent(folder, file));
+                        newSubfolders[j] = tombstone.subfolder;
+                        newSubfolders[j].deleted = false;
+                        newSubfolders[j].listed = 0;
                     }
+                    changed = true;
                 }
             }
+            for (; i < oldSubfolders.length; i++) {
+                bury(node, oldSubfolders[i], now);
+                changed = true;
+            }
+
+            node.subfolders = (newSubfolders.length == 0) ? FolderNode.NO_FOLDERS : newSubfolders;
+            return changed;
         }
 
-        public File[] getFiles(File folder) {
-            return folder.listFiles(filenameFilter);
+        private void bury(FolderNode node, FolderNode subfolder, long now) {
+            subfolder.deleted = true;
+            node.addTombstone(new FolderNode.Tombstone(
+                    subfolder.getName(), 0, 0, subfolder, now, runCount));
+        }
+
+        /**
+         * Removes the tombstones of the files and subfolders that stayed deleted
+         * since an earlier check, for at least the settle time, so their
+         * deletion is notified
+         * 
+         * @param node
+         *          the folder checked
+         * @param fileNames
+         *          the sorted names of the files found, including the ones not
+         *          settled yet
+         * @param now
+         *          the time this run started
+         * @return true if any tombstone was removed
+         */
+        private boolean expireTombstones(FolderNode node, List<String> fileNames, long now) {
+            if (node.tombstones == null) {
+                return false;
+            }
+
+            boolean expired = false;
+            Iterator<FolderNode.Tombstone> tombstones = node.tombstones.iterator();
+            while (tombstones.hasNext()) {
+                FolderNode.Tombstone tombstone = tombstones.next();
+                if (tombstone.run == runCount || now - tombstone.deleted < settleTime
+                        || (tombstone.subfolder == null
+                            && Collections.binarySearch(fileNames, tombstone.name) >= 0)) {
+                    continue;
+                }
+
+                tombstones.remove();
+                expired = true;
+                if (tombstone.subfolder != null) {
+                    forget(tombstone.subfolder);
+                }
+            }
+            if (node.tombstones.isEmpty()) {
+                node.tombstones = null;
+            }
+            return expired;
+        }
+
+        /**
+         * Forgets a deleted folder and all its subfolders
+         * 
+         * @param node
+         *          the deleted folder
+         */
+        private void forget(FolderNode node) {
+            node.deleted = true;
+            if (node.tombstones != null) {
+                for (FolderNode.Tombstone tombstone : node.tombstones) {
+                    if (tombstone.subfolder != null) {
+                        forget(tombstone.subfolder);
+                    }
+                }
+                node.tombstones = null;
+            }
+            for (FolderNode subfolder : node.subfolders) {
+                forget(subfolder);
+            }
+        }
+
+        public String[] getFiles(File folder) {
+            return folder.list(VISIBLE_FILES);
+        }
+
+        /**
+         * Drops the walk in progress, so the next run starts a complete walk
+         * checking every file
+         */
+        private void restart() {
+            pendingFolders.clear();
+            lastVerified = 0;
         }
     }
-  
-    private final ArrayList<FolderWatcher> folders = new ArrayList<FolderWatcher>();
-    private final ExtFilenameFilter filenameFilter;
-    private final String fileExtension;
-    private final List<FileAddedListener> fileAddedListeners;
-    private final List<FileDeletedListener> fileDeletedListeners;
-    private final List<FileModifiedListener> fileModifiedListeners;
 
-    class ExtFilenameFilter implements FilenameFilter {
+    /**
+     * Limits the work done by a single run
+     */
+    private static class ScanBudget {
+        static final ScanBudget UNLIMITED = new ScanBudget(0, 0);
 
-        @SuppressWarnings("synthetic-access")
-        public boolean accept(File folder, String name) {
-            return name.endsWith(fileExtension)
-                    || new File(folder.getAbsolutePath() + File.separator + name)
-                            .isDirectory();
+        private final long deadline;
+        private final boolean timeLimited;
+        private final boolean entriesLimited;
+        private int remainingEntries;
+
+        ScanBudget(int entries, long millis) {
+            this.entriesLimited = entries > 0;
+            this.remainingEntries = entries;
+            this.timeLimited = millis > 0;
+            this.deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        boolean isLimited() {
+            return entriesLimited || timeLimited;
         }
 
+        void charge(int entries) {
+            remainingEntries -= entries;
+        }
+
+        boolean isExhausted() {
+            return (entriesLimited && remainingEntries <= 0)
+                    || (timeLimited && System.nanoTime() - deadline >= 0);
+        }
     }
+  
+    /** Accepts the names of all the entries but the temporary ones */
+    private static final FilenameFilter VISIBLE_FILES = new FilenameFilter() {
+        public boolean accept(File folder, String name) {
+            return !isTemporary(name);
+        }
+    };
+
+    private final ArrayList<FolderWatcher> folders = new ArrayList<FolderWatcher>();
+    private final LinkedHashMap<FileMatcher, FileListeners> matchers =
+            new LinkedHashMap<FileMatcher, FileListeners>();
+    private FileMatcher[] matcherArray = new FileMatcher[0];
+    private final FileListeners listeners = new FileListeners();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile int scanBudget;
+    private volatile long scanTimeBudget;
+    private volatile long maxLatency;
+    private volatile long verifyPeriod;
+    private volatile long settleTime;
+    private long lastRun;
+    private long runCount;
+    private int nextFolder;
 
     /**
      * Creates a new instance of FileMonitor
@@ -122,12 +533,18 @@ public class FileMonitor implements Runnable {
      *          the file extension to monitor
      */
     public FileMonitor(List<String> folderPaths, String fileExtension) {
-        this.fileExtension = fileExtension;
-        this.filenameFilter = new ExtFilenameFilter();
-        this.fileAddedListeners = new LinkedList<FileAddedListener>();
-        this.fileDeletedListeners = new LinkedList<FileDeletedListener>();
-        this.fileModifiedListeners = new LinkedList<FileModifiedListener>();
-        
+        this(folderPaths);
+        addMatcher(FileMatcher.forExtension(fileExtension));
+    }
+
+    /**
+     * Creates a new instance of FileMonitor monitoring no file until a matcher
+     * is added
+     * 
+     * @param folderPaths
+     *          the folder paths to monitor
+     */
+    public FileMonitor(List<String> folderPaths) {
         for (String path : folderPaths) {
           File folder = new File(path);
           if (!folder.isAbsolute() || !folder.isDirectory()) {
@@ -140,57 +557,287 @@ public class FileMonitor implements Runnable {
     }
 
     public void run() {
-        for (FolderWatcher folder : folders) {
-            folder.checkDeletion();
-            folder.checkAddAndModify();
+        long now = System.currentTimeMillis();
+        long interval = lastRun == 0 ? 0 : now - lastRun;
+        lastRun = now;
+        runCount++;
+
+        ScanBudget budget = new ScanBudget(scanBudget, scanTimeBudget);
+        int size = folders.size();
+        for (int i = 0; i < size; i++) {
+            folders.get((nextFolder + i) % size).scan(budget, now, interval);
+        }
+        if (size > 0) {
+            nextFolder = (nextFolder + 1) % size;
+        }
+
+        Snapshot.Folder[] roots = new Snapshot.Folder[size];
+        for (int i = 0; i < size; i++) {
+            roots[i] = folders.get(i).root.getSnapshot();
+        }
+        Snapshot previous = snapshot;
+        snapshot = new Snapshot(roots);
+        ChangeSet changes = snapshot.diff(previous);
+        if (!changes.isEmpty()) {
+            listeners.notify(changes, snapshot);
+            if (matcherArray.length == 1) {
+                matchers.get(matcherArray[0]).notify(changes, snapshot);
+            } else {
+                for (Map.Entry<FileMatcher, FileListeners> entry : matchers.entrySet()) {
+                    if (!entry.getValue().isEmpty()) {
+                        ChangeSet matched = changes.select(entry.getKey());
+                        if (!matched.isEmpty()) {
+                            entry.getValue().notify(matched, snapshot);
+                        }
+                    }
+                }
+            }
         }
     }
 
     /**
-     * Adds a file modified listener
+     * Adds a matcher selecting files to monitor, if not already added
+     * 
+     * @param matcher
+     *          the matcher
+     */
+    public void addMatcher(FileMatcher matcher) {
+        getListeners(matcher);
+    }
+
+    private FileListeners getListeners(FileMatcher matcher) {
+        FileListeners matcherListeners = matchers.get(matcher);
+        if (matcherListeners == null) {
+            matcherListeners = new FileListeners();
+            matchers.put(matcher, matcherListeners);
+            matcherArray = matchers.keySet().toArray(new FileMatcher[matchers.size()]);
+            if (hasRun()) {
+                for (FolderWatcher folder : folders) {
+                    folder.restart();
+                }
+            }
+        }
+        return matcherListeners;
+    }
+
+    /**
+     * Tells if a file is selected by any matcher
+     * 
+     * @param name
+     *          the file name
+     */
+    private boolean isMatched(String name) {
+        for (FileMatcher matcher : matcherArray) {
+            if (matcher.matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the files known at the end of the last run. The snapshot is
+     * immutable, and shares the folders that did not change with the snapshots
+     * of the previous runs, so comparing it with an earlier one is cheap.
+     * 
+     * @return the snapshot, empty before the first run
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Tells if this monitor has run at least once, so it knows the files
+     * already present
+     */
+    boolean hasRun() {
+        return runCount > 0;
+    }
+
+    /**
+     * Notifies a listener of the addition of every file currently known and
+     * selected by a matcher, so a listener added after the first run learns
+     * about the files already present
+     * 
+     * @param matcher
+     *          the matcher
+     * @param listener
+     *          the listener
+     */
+    void notifyKnownFiles(FileMatcher matcher, FileAddedListener listener) {
+        ChangeSet known = snapshot.diff(Snapshot.EMPTY).select(matcher);
+        for (File file : known.getAdded()) {
+            listener.fileAdded(new FileEvent(known.getBaseFolder(file), file));
+        }
+    }
+
+    /**
+     * Sets the max number of entries checked by a single run. Zero, the
+     * default, means no limit.
+     * 
+     * @param entries
+     *          the max number of entries checked per run
+     */
+    public void setScanBudget(int entries) {
+        this.scanBudget = entries;
+    }
+
+    /**
+     * Sets the max time spent by a single run. Zero, the default, means no
+     * limit. The time is checked between folders, so a run can exceed it by the
+     * time needed to check one folder.
+     * 
+     * @param millis
+     *          the max time spent per run, in milliseconds
+     */
+    public void setScanTimeBudget(long millis) {
+        this.scanTimeBudget = millis;
+    }
+
+    /**
+     * Sets the max time a full walk of the monitored folders may take, which is
+     * the worst case delay before a change is detected. When a walk would take
+     * longer, the scan budget is ignored until the walk is complete. Zero, the
+     * default, means no limit.
+     * 
+     * @param millis
+     *          the max time a full walk may take, in milliseconds
+     */
+    public void setMaxLatency(long millis) {
+        this.maxLatency = millis;
+    }
+
+    /**
+     * Enables skipping folders whose modification time did not change since
+     * they were last listed. Tools that replace a file by creating a new one and
+     * renaming it update the modification time of its folder, but files
+     * rewritten in place do not, so a full check of every file is still done
+     * at the given period. Zero, the default, checks every file on every walk.
+     * 
+     * @param millis
+     *          the time between full checks, in milliseconds
+     */
+    public void setVerifyPeriod(long millis) {
+        this.verifyPeriod = millis;
+    }
+
+    /**
+     * Sets how long a file must stay unmodified before its change is notified,
+     * so a file still being written is not notified before it is complete. A
+     * deleted file must also stay missing for this time before its deletion is
+     * notified. Zero, the default, notifies changes at the first check that
+     * finds them, and deletions at the next check.
+     * 
+     * @param millis
+     *          the settle time, in milliseconds
+     */
+    public void setSettleTime(long millis) {
+        this.settleTime = millis;
+    }
+
+    /**
+     * Tells if a file name is the name of a hidden file, or of a temporary
+     * file written by an editor or a build tool
+     * 
+     * @param name
+     *          the file name
+     */
+    static boolean isTemporary(String name) {
+        return name.startsWith(".") || name.startsWith("#") || name.endsWith("~");
+    }
+
+    /**
+     * Adds a file modified listener, notified of the changes of all the files
+     * monitored
      * 
      * @param listener
      *          the listener
      */
     public void addModifiedListener(FileModifiedListener listener) {
-        fileModifiedListeners.add(listener);
+        listeners.fileModifiedListeners.add(listener);
     }
 
     /**
-     * Adds a file deleted listener
+     * Adds a file deleted listener, notified of the changes of all the files
+     * monitored
      * 
      * @param listener
      *          the listener
      */
     public void addDeletedListener(FileDeletedListener listener) {
-        fileDeletedListeners.add(listener);
+        listeners.fileDeletedListeners.add(listener);
     }
 
     /**
-     * Adds a file added listener
+     * Adds a file added listener, notified of the changes of all the files
+     * monitored
      * 
      * @param listener
      *          the listener
      */
     public void addAddedListener(FileAddedListener listener) {
-        fileAddedListeners.add(listener);
+        listeners.fileAddedListeners.add(listener);
     }
 
-    private void notifyModifiedListeners(FileEvent event) {
-        for (FileModifiedListener listener : fileModifiedListeners) {
-            listener.fileModified(event);
-        }
+    /**
+     * Adds a listener notified once per run of all the changes found
+     * 
+     * @param listener
+     *          the listener
+     */
+    public void addChangeSetListener(ChangeSetListener listener) {
+        listeners.changeSetListeners.add(listener);
     }
 
-    private void notifyAddedListeners(FileEvent event) {
-        for (FileAddedListener listener : fileAddedListeners) {
-            listener.fileAdded(event);
-        }
+    /**
+     * Adds a file modified listener of the files selected by a matcher, adding
+     * the matcher if needed
+     * 
+     * @param matcher
+     *          the matcher
+     * @param listener
+     *          the listener
+     */
+    public void addModifiedListener(FileMatcher matcher, FileModifiedListener listener) {
+        getListeners(matcher).fileModifiedListeners.add(listener);
     }
 
-    private void notifyDeletedListeners(FileEvent event) {
-        for (FileDeletedListener listener : fileDeletedListeners) {
-            listener.fileDeleted(event);
-        }
+    /**
+     * Adds a file deleted listener of the files selected by a matcher, adding
+     * the matcher if needed
+     * 
+     * @param matcher
+     *          the matcher
+     * @param listener
+     *          the listener
+     */
+    public void addDeletedListener(FileMatcher matcher, FileDeletedListener listener) {
+        getListeners(matcher).fileDeletedListeners.add(listener);
+    }
+
+    /**
+     * Adds a file added listener of the files selected by a matcher, adding the
+     * matcher if needed
+     * 
+     * @param matcher
+     *          the matcher
+     * @param listener
+     *          the listener
+     */
+    public void addAddedListener(FileMatcher matcher, FileAddedListener listener) {
+        getListeners(matcher).fileAddedListeners.add(listener);
+    }
+
+    /**
+     * Adds a listener notified once per run of the changes found to the files
+     * selected by a matcher, adding the matcher if needed
+     * 
+     * @param matcher
+     *          the matcher
+     * @param listener
+     *          the listener
+     */
+    public void addChangeSetListener(FileMatcher matcher, ChangeSetListener listener) {
+        getListeners(matcher).changeSetListeners.add(listener);
     }
 }
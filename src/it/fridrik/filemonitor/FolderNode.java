@@ -0,0 +1,235 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A node of the tree of monitored folders, holding what was found the last
+ * time the folder was listed. Files are kept as their bare names, sorted and
+ * packed in a {@link NameTable}, with their modification times and sizes in
+ * parallel primitive arrays, so the path of the folder is stored once rather
+ * than once per file, and a name costs its bytes rather than a String. Files and
+ * subfolders no longer found are kept for a while as tombstones, so a file
+ * deleted and created again is seen as modified.
+ * <p>
+ * Each node keeps the snapshot of its folder taken at the end of the last run,
+ * which is taken again only if the folder or one of its subfolders changed
+ * since. A changed folder marks its ancestors as changed, so a snapshot copies
+ * the path from the changed folders to the root and shares everything else.
+ */
+class FolderNode {
+
+    static final String[] NO_NAMES = new String[0];
+    static final long[] NO_TIMES = new long[0];
+    static final FolderNode[] NO_FOLDERS = new FolderNode[0];
+
+    /**
+     * Folder modification times closer than this to the time the folder was
+     * listed are not trusted, since file systems may store them with a
+     * resolution as coarse as 2 seconds
+     */
+    private static final long MTIME_RESOLUTION_MILLIS = 2000;
+
+    /**
+     * A file or subfolder no longer found in the folder, whose deletion has not
+     * been notified yet
+     */
+    static class Tombstone {
+        final String name;
+        final long lastModified;
+        final long size;
+        final FolderNode subfolder;
+        final long deleted;
+        final long run;
+
+        Tombstone(String name, long lastModified, long size,
+            FolderNode subfolder, long deleted, long run)
+        {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.subfolder = subfolder;
+            this.deleted = deleted;
+            this.run = run;
+        }
+    }
+
+    private static final Comparator<Tombstone> TOMBSTONE_ORDER =
+            new Comparator<Tombstone>() {
+                public int compare(Tombstone t1, Tombstone t2) {
+                    return t1.name.compareTo(t2.name);
+                }
+            };
+
+    private static final Comparator<FolderNode> FOLDER_ORDER =
+            new Comparator<FolderNode>() {
+                public int compare(FolderNode f1, FolderNode f2) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+            };
+
+    final FolderNode parent;
+    final File folder;
+    long lastModified;
+    long listed;
+    NameTable fileNames = NameTable.EMPTY;
+    long[] fileLastModified = NO_TIMES;
+    long[] fileSizes = NO_TIMES;
+    FolderNode[] subfolders = NO_FOLDERS;
+    List<Tombstone> tombstones;
+    boolean unsettled;
+    boolean deleted;
+    private boolean changed;
+    private Snapshot.Folder snapshot;
+
+    FolderNode(FolderNode parent, File folder) {
+        this.parent = parent;
+        this.folder = folder;
+    }
+
+    String getName() {
+        return folder.getName();
+    }
+
+    /**
+     * Tells if the folder has been listed at least once
+     */
+    boolean isListed() {
+        return listed != 0;
+    }
+
+    /**
+     * Tells if the folder entries cannot have changed since it was listed
+     * 
+     * @param currentLastModified
+     *          the current modification time of the folder
+     */
+    boolean isUnchanged(long currentLastModified) {
+        return isListed() && !unsettled && tombstones == null
+                && currentLastModified == lastModified
+                && lastModified < listed - MTIME_RESOLUTION_MILLIS;
+    }
+
+    void addTombstone(Tombstone tombstone) {
+        if (tombstones == null) {
+            tombstones = new ArrayList<Tombstone>(1);
+        }
+        tombstones.add(tombstone);
+    }
+
+    /**
+     * Removes the tombstone of a file or subfolder
+     * 
+     * @param name
+     *          the name of the file or subfolder
+     * @param isFolder
+     *          true to look for a subfolder, false for a file
+     * @return the tombstone, or null if none
+     */
+    Tombstone removeTombstone(String name, boolean isFolder) {
+        if (tombstones != null) {
+            for (int i = 0; i < tombstones.size(); i++) {
+                Tombstone tombstone = tombstones.get(i);
+                if (tombstone.name.equals(name)
+                        && (tombstone.subfolder != null) == isFolder) {
+                    tombstones.remove(i);
+                    if (tombstones.isEmpty()) {
+                        tombstones = null;
+                    }
+                    return tombstone;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks the folder and its ancestors as changed since their snapshot was
+     * taken
+     */
+    void markChanged() {
+        for (FolderNode node = this; node != null && !node.changed; node = node.parent) {
+            node.changed = true;
+        }
+    }
+
+    /**
+     * Gets the snapshot of the folder and its subfolders, taking it again if
+     * they changed. Files and subfolders whose deletion has not been notified
+     * yet are still part of the snapshot.
+     */
+    Snapshot.Folder getSnapshot() {
+        if (snapshot != null && !changed) {
+            return snapshot;
+        }
+
+        List<Tombstone> deletedFiles = new ArrayList<Tombstone>();
+        List<FolderNode> folders = new ArrayList<FolderNode>();
+        Collections.addAll(folders, subfolders);
+        if (tombstones != null) {
+            for (Tombstone tombstone : tombstones) {
+                if (tombstone.subfolder == null) {
+                    deletedFiles.add(tombstone);
+                } else {
+                    folders.add(tombstone.subfolder);
+                }
+            }
+            Collections.sort(deletedFiles, TOMBSTONE_ORDER);
+            Collections.sort(folders, FOLDER_ORDER);
+        }
+
+        Snapshot.Folder[] subfolderSnapshots = new Snapshot.Folder[folders.size()];
+        for (int i = 0; i < subfolderSnapshots.length; i++) {
+            subfolderSnapshots[i] = folders.get(i).getSnapshot();
+        }
+
+        if (deletedFiles.isEmpty()) {
+            snapshot = new Snapshot.Folder(folder, fileNames, fileLastModified,
+                    fileSizes, subfolderSnapshots);
+        } else {
+            int count = fileNames.size() + deletedFiles.size();
+            String[] names = new String[count];
+            long[] times = new long[count];
+            long[] sizes = new long[count];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < count; k++) {
+                if (j == deletedFiles.size() || (i < fileNames.size()
+                        && fileNames.compareTo(i, deletedFiles.get(j).name) < 0)) {
+                    names[k] = fileNames.get(i);
+                    times[k] = fileLastModified[i];
+                    sizes[k] = fileSizes[i];
+                    i++;
+                } else {
+                    Tombstone tombstone = deletedFiles.get(j);
+                    names[k] = tombstone.name;
+                    times[k] = tombstone.lastModified;
+                    sizes[k] = tombstone.size;
+                    j++;
+                }
+            }
+            snapshot = new Snapshot.Folder(folder, NameTable.of(names, count), times,
+                    sizes, subfolderSnapshots);
+        }
+        changed = false;
+        return snapshot;
+    }
+}
@@ -16,11 +16,14 @@
  */
 package it.fridrik.filemonitor;
 
+import java.util.Collections;
 import java.util.EventObject;
+import java.util.List;
 import java.util.jar.JarFile;
 
 /**
- * Raised every time a class contained into a jar is modified
+ * Raised every time classes contained into a jar are modified, with all the
+ * classes found modified at once
  * 
  * @author Federico Fissore (federico@fissore.org)
  * @since 1.0
@@ -29,11 +32,23 @@ public class JarEvent extends EventObject {
 
     private static final long serialVersionUID = -7809367345460212417L;
 
-    private final String entryName;
+    private final List<String> entryNames;
 
     public JarEvent(JarFile file, String entryName) {
+        this(file, Collections.singletonList(entryName));
+    }
+
+    /**
+     * Creates a new JarEvent for several changed entries of a jar
+     * 
+     * @param file
+     *          the changed jar file
+     * @param entryNames
+     *          the names of the changed entries
+     */
+    public JarEvent(JarFile file, List<String> entryNames) {
         super(file);
-        this.entryName = entryName;
+        this.entryNames = Collections.unmodifiableList(entryNames);
     }
 
     /**
@@ -47,12 +62,21 @@ public class JarEvent extends EventObject {
     }
 
     /**
-     * The changed class file
+     * The changed class file, the first one if several changed
      * 
      * @return the changed class file
      */
     public String getEntryName() {
-        return entryName;
+        return entryNames.get(0);
+    }
+
+    /**
+     * The changed class files
+     * 
+     * @return the names of the changed entries, in order
+     */
+    public List<String> getEntryNames() {
+        return entryNames;
     }
 
 }
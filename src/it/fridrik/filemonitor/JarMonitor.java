@@ -16,14 +16,13 @@
  */
 package it.fridrik.filemonitor;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,7 +30,9 @@ import java.util.logging.Logger;
 /**
  * JarMonitor uses FileMonitor to receive notifications about jar changes, then
  * looks into the changed jar for the changed classes and then tells its
- * listeners about the changed classes in the changed jars
+ * listeners about the changed classes in the changed jars, with one event per
+ * jar. Only the central directory of a changed jar is read to find the changed
+ * classes, comparing their CRC32 and size.
  * 
  * @author Federico Fissore (federico@fissore.org)
  * @since 1.0
@@ -42,13 +43,11 @@ public class JarMonitor implements FileModifiedListener, FileAddedListener,
     private final static Logger log = Logger.getLogger(JarMonitor.class.getName());
 
     private final FileMonitor fileMonitor;
-    private final String absoluteFolderPath;
-    private final Map<String, Map<String, Long>> jarsMap;
+    private final Map<String, ZipIndex> jarsMap;
     private final List<JarModifiedListener> jarModifiedListeners;
 
     public JarMonitor(String absoluteFolderPath) {
-        this.absoluteFolderPath = absoluteFolderPath;
-        this.jarsMap = new HashMap<String, Map<String, Long>>();
+        this.jarsMap = new HashMap<String, ZipIndex>();
         this.jarModifiedListeners = new LinkedList<JarModifiedListener>();
 
         fileMonitor = new FileMonitor(Arrays.asList(absoluteFolderPath), "jar");
@@ -57,53 +56,66 @@ public class JarMonitor implements FileModifiedListener, FileAddedListener,
         fileMonitor.addDeletedListener(this);
     }
 
+    /**
+     * Creates a JarMonitor without a FileMonitor of its own, to be added as
+     * listener of the jar files to a shared watch
+     * 
+     * @see WatchRegistry
+     */
+    public JarMonitor() {
+        this.jarsMap = new HashMap<String, ZipIndex>();
+        this.jarModifiedListeners = new LinkedList<JarModifiedListener>();
+        this.fileMonitor = null;
+    }
+
     public void run() {
-        fileMonitor.run();
+        if (fileMonitor != null) {
+            fileMonitor.run();
+        }
     }
 
     public void fileModified(FileEvent event) {
-        JarFile file = getJarFile(event);
-
-        if (file != null) {
-            Map<String, Long> jarEntries = jarsMap.get(event.getSource());
-            for (Enumeration<JarEntry> entries = file.entries(); entries
-                    .hasMoreElements();) {
-                JarEntry entry = entries.nextElement();
-
-                if (!jarEntries.containsKey(entry.getName())) {
-                    jarEntries.put(entry.getName(), Long.valueOf(entry.getTime()));
-                }
-
-                if (entry.getTime() != jarEntries.get(entry.getName()).longValue()) {
-                    jarEntries.put(entry.getName(), Long.valueOf(entry.getTime()));
-                    notifyJarModifiedListeners(new JarEvent(file, entry.getName()));
+        ZipIndex index = getIndex(event.getSource());
+
+        if (index != null) {
+            ZipIndex previous = jarsMap.put(event.getSource().toString(), index);
+            List<String> changed = index.getChangedNames(previous);
+            if (!changed.isEmpty()) {
+                JarFile file = getJarFile(event.getSource());
+                if (file != null) {
+                    try {
+                        notifyJarModifiedListeners(new JarEvent(file, changed));
+                    } finally {
+                        close(file);
+                    }
                 }
-
             }
-
         }
     }
 
     public void fileAdded(FileEvent event) {
-        JarFile file = getJarFile(event);
-
-        if (file != null) {
-            Map<String, Long> jarEntries = new HashMap<String, Long>();
-            jarsMap.put(event.getSource().toString(), jarEntries);
-
-            for (Enumeration<JarEntry> entries = file.entries(); entries
-                    .hasMoreElements();) {
-                JarEntry entry = entries.nextElement();
-                if (entry.getName().endsWith("jar")) {
-                    jarEntries.put(entry.getName(), Long.valueOf(entry.getTime()));
-                    notifyJarModifiedListeners(new JarEvent(file, entry.getName()));
-                }
-            }
+        ZipIndex index = getIndex(event.getSource());
+
+        if (index != null) {
+            jarsMap.put(event.getSource().toString(), index);
         }
     }
 
     public void fileDeleted(FileEvent event) {
-        jarsMap.remove(event.getSource());
+        jarsMap.remove(event.getSource().toString());
+    }
+
+    /**
+     * Sets how long a jar must stay unmodified before it is read
+     * 
+     * @param millis
+     *          the settle time, in milliseconds
+     * @see FileMonitor#setSettleTime(long)
+     */
+    public void setSettleTime(long millis) {
+        if (fileMonitor != null) {
+            fileMonitor.setSettleTime(millis);
+        }
     }
 
     public void addJarModifiedListener(JarModifiedListener listener) {
@@ -116,13 +128,30 @@ public class JarMonitor implements FileModifiedListener, FileAddedListener,
         }
     }
 
-    private JarFile getJarFile(FileEvent event) {
+    private JarFile getJarFile(File jar) {
+        try {
+            return new JarFile(jar);
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "error", e);
+            return null;
+        }
+    }
+
+    private ZipIndex getIndex(File jar) {
         try {
-            return new JarFile(absoluteFolderPath + event.getSource());
+            return ZipIndex.read(jar);
         } catch (IOException e) {
             log.log(Level.SEVERE, "error", e);
             return null;
         }
     }
 
+    private static void close(JarFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.log(Level.FINE, "close", e);
+        }
+    }
+
 }
@@ -0,0 +1,210 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+/**
+ * The sorted file names of a folder, packed in a single byte array with the
+ * offset of each name, instead of one String per file. Each char of a name is
+ * stored in one to three bytes as in UTF-8, so names sort the same way as
+ * their bytes, and the same way as Strings. Tables are immutable, so they are
+ * shared by the folder nodes and the snapshots.
+ */
+final class NameTable {
+
+    /** A table without any name */
+    static final NameTable EMPTY = new NameTable(new byte[0], new int[1]);
+
+    private final byte[] data;
+    private final int[] offsets;
+
+    private NameTable(byte[] data, int[] offsets) {
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Packs sorted names
+     *
+     * @param names
+     *          the names, sorted
+     * @param count
+     *          the number of names to pack, from the first one
+     * @return the table
+     */
+    static NameTable of(String[] names, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            length += getEncodedLength(names[i]);
+        }
+        byte[] data = new byte[length];
+        int[] offsets = new int[count + 1];
+        int p = 0;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = p;
+            String name = names[i];
+            for (int k = 0; k < name.length(); k++) {
+                char c = name.charAt(k);
+                if (c < 0x80) {
+                    data[p++] = (byte) c;
+                } else if (c < 0x800) {
+                    data[p++] = (byte) (0xC0 | (c >> 6));
+                    data[p++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    data[p++] = (byte) (0xE0 | (c >> 12));
+                    data[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    data[p++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+        offsets[count] = p;
+        return new NameTable(data, offsets);
+    }
+
+    /**
+     * Gets the number of names
+     */
+    int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Gets a name
+     *
+     * @param index
+     *          the index of the name
+     */
+    String get(int index) {
+        int end = offsets[index + 1];
+        char[] chars = new char[end - offsets[index]];
+        int length = 0;
+        for (int p = offsets[index]; p < end;) {
+            int b = data[p] & 0xFF;
+            if (b < 0x80) {
+                chars[length++] = (char) b;
+                p++;
+            } else if (b < 0xE0) {
+                chars[length++] = (char) (((b & 0x1F) << 6) | (data[p + 1] & 0x3F));
+                p += 2;
+            } else {
+                chars[length++] = (char) (((b & 0x0F) << 12)
+                        | ((data[p + 1] & 0x3F) << 6) | (data[p + 2] & 0x3F));
+                p += 3;
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Compares a name of this table with a name, as String.compareTo does
+     *
+     * @param index
+     *          the index of the name in this table
+     * @param name
+     *          the name to compare it with
+     * @return a negative number, zero or a positive number as the name of
+     *         this table is less than, equal to or greater than the name
+     */
+    int compareTo(int index, String name) {
+        int end = offsets[index + 1];
+        int p = offsets[index];
+        int k = 0;
+        while (p < end && k < name.length()) {
+            int b = data[p] & 0xFF;
+            int c;
+            if (b < 0x80) {
+                c = b;
+                p++;
+            } else if (b < 0xE0) {
+                c = ((b & 0x1F) << 6) | (data[p + 1] & 0x3F);
+                p += 2;
+            } else {
+                c = ((b & 0x0F) << 12) | ((data[p + 1] & 0x3F) << 6) | (data[p + 2] & 0x3F);
+                p += 3;
+            }
+            int difference = c - name.charAt(k++);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        if (p < end) {
+            return 1;
+        }
+        return (k < name.length()) ? -1 : 0;
+    }
+
+    /**
+     * Compares a name of this table with a name of another table
+     *
+     * @param index
+     *          the index of the name in this table
+     * @param other
+     *          the other table
+     * @param otherIndex
+     *          the index of the name in the other table
+     * @return a negative number, zero or a positive number as the name of
+     *         this table is less than, equal to or greater than the other name
+     */
+    int compareTo(int index, NameTable other, int otherIndex) {
+        int p = offsets[index];
+        int end = offsets[index + 1];
+        int q = other.offsets[otherIndex];
+        int otherEnd = other.offsets[otherIndex + 1];
+        while (p < end && q < otherEnd) {
+            int difference = (data[p++] & 0xFF) - (other.data[q++] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return (end - p) - (otherEnd - q);
+    }
+
+    /**
+     * Finds a name
+     *
+     * @param name
+     *          the name
+     * @return the index of the name, or a negative number if not found
+     */
+    int indexOf(String name) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareTo(middle, name);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int getEncodedLength(String name) {
+        int length = 0;
+        for (int k = 0; k < name.length(); k++) {
+            char c = name.charAt(k);
+            length += (c < 0x80) ? 1 : (c < 0x800) ? 2 : 3;
+        }
+        return length;
+    }
+}
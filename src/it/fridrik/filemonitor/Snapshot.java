@@ -0,0 +1,256 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable view of the files known by a {@link FileMonitor} at the end of
+ * a run. Each folder is a node holding the sorted names of its files, with
+ * their modification times and sizes in parallel arrays, and its subfolders.
+ * A run copies only the nodes of the folders where something changed and
+ * their ancestors, sharing every other node with the previous snapshot, so
+ * taking a snapshot costs in proportion to the changes, and comparing two
+ * snapshots skips the folders they share.
+ * <p>
+ * A file no longer found is part of the snapshot until its deletion is
+ * notified, since it may be created again in the meantime.
+ */
+public final class Snapshot {
+
+    /** A snapshot without any folder */
+    public static final Snapshot EMPTY = new Snapshot(new Folder[0]);
+
+    /**
+     * A folder of a snapshot
+     */
+    static final class Folder {
+        final File folder;
+        final NameTable fileNames;
+        final long[] fileLastModified;
+        final long[] fileSizes;
+        final Folder[] subfolders;
+        final int size;
+
+        Folder(File folder, NameTable fileNames, long[] fileLastModified,
+            long[] fileSizes, Folder[] subfolders)
+        {
+            this.folder = folder;
+            this.fileNames = fileNames;
+            this.fileLastModified = fileLastModified;
+            this.fileSizes = fileSizes;
+            this.subfolders = subfolders;
+
+            int size = fileNames.size();
+            for (Folder subfolder : subfolders) {
+                size += subfolder.size;
+            }
+            this.size = size;
+        }
+
+        String getName() {
+            return folder.getName();
+        }
+    }
+
+    private final Folder[] roots;
+
+    Snapshot(Folder[] roots) {
+        this.roots = roots;
+    }
+
+    /**
+     * Gets the monitored folders
+     */
+    public List<File> getBaseFolders() {
+        List<File> baseFolders = new ArrayList<File>(roots.length);
+        for (Folder root : roots) {
+            baseFolders.add(root.folder);
+        }
+        return baseFolders;
+    }
+
+    /**
+     * Gets the number of files
+     */
+    public int size() {
+        int size = 0;
+        for (Folder root : roots) {
+            size += root.size;
+        }
+        return size;
+    }
+
+    /**
+     * Tells if a file is part of this snapshot
+     *
+     * @param file
+     *          the absolute path of the file
+     */
+    public boolean contains(File file) {
+        File parent = file.getParentFile();
+        if (parent == null) {
+            return false;
+        }
+        Folder folder = find(parent);
+        return folder != null && folder.fileNames.indexOf(file.getName()) >= 0;
+    }
+
+    /**
+     * Gets the changes from a previous snapshot to this one. Folders shared by
+     * the two snapshots are not compared, so comparing two snapshots of the
+     * same monitor costs in proportion to the changes.
+     *
+     * @param previous
+     *          the previous snapshot
+     * @return the files added, modified and deleted since the previous
+     *         snapshot
+     */
+    public ChangeSet diff(Snapshot previous) {
+        List<File> baseFolders = getBaseFolders();
+        for (Folder root : previous.roots) {
+            if (!baseFolders.contains(root.folder)) {
+                baseFolders.add(root.folder);
+            }
+        }
+
+        ChangeSet changes = new ChangeSet(baseFolders);
+        for (Folder root : roots) {
+            Folder previousRoot = previous.getRoot(root.folder);
+            if (previousRoot == null) {
+                addAll(root, changes.added);
+            } else {
+                diff(previousRoot, root, changes);
+            }
+        }
+        for (Folder root : previous.roots) {
+            if (getRoot(root.folder) == null) {
+                addAll(root, changes.deleted);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Gets a monitored folder, or null if not found
+     */
+    Folder getRoot(File folder) {
+        for (Folder root : roots) {
+            if (root.folder.equals(folder)) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds a folder by its path
+     */
+    private Folder find(File path) {
+        Folder root = getRoot(path);
+        if (root != null) {
+            return root;
+        }
+        File parent = path.getParentFile();
+        if (parent == null) {
+            return null;
+        }
+        Folder folder = find(parent);
+        if (folder == null) {
+            return null;
+        }
+        String name = path.getName();
+        for (Folder subfolder : folder.subfolders) {
+            if (subfolder.getName().equals(name)) {
+                return subfolder;
+            }
+        }
+        return null;
+    }
+
+    private static void diff(Folder previous, Folder current, ChangeSet changes) {
+        if (previous == current) {
+            return;
+        }
+
+        if (previous.fileNames != current.fileNames
+                || previous.fileLastModified != current.fileLastModified
+                || previous.fileSizes != current.fileSizes) {
+            diffFiles(previous, current, changes);
+        }
+
+        Folder[] oldSubfolders = previous.subfolders;
+        int i = 0;
+        for (Folder subfolder : current.subfolders) {
+            String name = subfolder.getName();
+            while (i < oldSubfolders.length
+                    && oldSubfolders[i].getName().compareTo(name) < 0) {
+                addAll(oldSubfolders[i], changes.deleted);
+                i++;
+            }
+            if (i < oldSubfolders.length && oldSubfolders[i].getName().equals(name)) {
+                diff(oldSubfolders[i], subfolder, changes);
+                i++;
+            } else {
+                addAll(subfolder, changes.added);
+            }
+        }
+        for (; i < oldSubfolders.length; i++) {
+            addAll(oldSubfolders[i], changes.deleted);
+        }
+    }
+
+    private static void diffFiles(Folder previous, Folder current, ChangeSet changes) {
+        NameTable oldNames = previous.fileNames;
+        NameTable names = current.fileNames;
+        int i = 0;
+        for (int j = 0; j < names.size(); j++) {
+            while (i < oldNames.size() && oldNames.compareTo(i, names, j) < 0) {
+                changes.deleted.add(new File(previous.folder, oldNames.get(i)));
+                i++;
+            }
+            if (i < oldNames.size() && oldNames.compareTo(i, names, j) == 0) {
+                if (previous.fileLastModified[i] != current.fileLastModified[j]
+                        || previous.fileSizes[i] != current.fileSizes[j]) {
+                    changes.modified.add(new File(current.folder, names.get(j)));
+                }
+                i++;
+            } else {
+                changes.added.add(new File(current.folder, names.get(j)));
+            }
+        }
+        for (; i < oldNames.size(); i++) {
+            changes.deleted.add(new File(previous.folder, oldNames.get(i)));
+        }
+    }
+
+    private static void addAll(Folder folder, List<File> files) {
+        for (int i = 0; i < folder.fileNames.size(); i++) {
+            files.add(new File(folder.folder, folder.fileNames.get(i)));
+        }
+        for (Folder subfolder : folder.subfolders) {
+            addAll(subfolder, files);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot of " + size() + " files in " + getBaseFolders();
+    }
+}
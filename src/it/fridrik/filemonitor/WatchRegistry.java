@@ -0,0 +1,512 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * WatchRegistry shares the monitoring of folders among all its subscribers in
+ * the jvm, so a folder watched by several subscribers is walked once per
+ * period. A folder already watched, itself or through one of its parents, is
+ * served by the existing watch whatever the files subscribed to: the watch
+ * adds the matcher of the subscription to its monitor, which selects the
+ * files of all its matchers in the same walk, and its events are filtered and
+ * rebased to the subscribed folder. A folder subscribed before one of its
+ * parents is taken over by the watch of the parent once the parent was walked
+ * for the first time, so each folder is still walked once per period.
+ * <p>
+ * Each watch runs on a shared scheduler at the smallest period requested by
+ * its started subscriptions, and stops when its last subscription is
+ * cancelled. A subscription is started once its listeners are added and the
+ * monitor of its watch is set up, so the first walk already has them.
+ * Settings applied to the monitor of a watch are shared by all its
+ * subscribers, the last one applied wins.
+ *
+ * @see FileMonitor
+ */
+public class WatchRegistry {
+
+    private final static Logger log = Logger.getLogger(WatchRegistry.class.getName());
+
+    private static final WatchRegistry instance = new WatchRegistry();
+
+    /**
+     * Creates the low priority daemon threads running the watches, so they
+     * neither compete with the application nor keep the jvm alive
+     */
+    private static class MonitorThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    "smith-monitor-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+
+    /**
+     * A folder watched by one FileMonitor, whose events are dispatched to the
+     * subscriptions
+     */
+    private class Watch implements Runnable {
+        private final File folder;
+        private final FileMonitor monitor;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+        private final List<FileMatcher> matchers = new ArrayList<FileMatcher>();
+        private ScheduledFuture<?> task;
+        private long period;
+
+        private Watch(File folder) {
+            this.folder = folder;
+            this.monitor = new FileMonitor(Arrays.asList(folder.toString()));
+        }
+
+        /**
+         * Adds a matcher to the monitor, with a dispatcher of its events to the
+         * subscriptions of the matcher
+         */
+        private synchronized void addMatcher(FileMatcher matcher) {
+            if (!matchers.contains(matcher)) {
+                matchers.add(matcher);
+                Dispatcher dispatcher = new Dispatcher(this, matcher);
+                monitor.addModifiedListener(matcher, dispatcher);
+                monitor.addAddedListener(matcher, dispatcher);
+                monitor.addDeletedListener(matcher, dispatcher);
+            }
+        }
+
+        /**
+         * Tells if this watch sees the files of a folder
+         */
+        private boolean contains(File subfolder) {
+            String path = folder.toString();
+            String subpath = subfolder.toString();
+            return subpath.equals(path) || subpath.startsWith(path + File.separator);
+        }
+
+        public void run() {
+            boolean first;
+            synchronized (this) {
+                first = !monitor.hasRun();
+                try {
+                    monitor.run();
+                } catch (RuntimeException e) {
+                    log.log(Level.SEVERE, "monitor", e);
+                }
+            }
+            if (first) {
+                takeOver(this);
+            }
+            for (Subscription subscription : subscriptions) {
+                subscription.notifyScanCompleted();
+            }
+        }
+
+        /**
+         * Schedules this watch at the smallest period of its started
+         * subscriptions, if it changed
+         */
+        private void schedule() {
+            long smallest = Long.MAX_VALUE;
+            for (Subscription subscription : subscriptions) {
+                if (subscription.started) {
+                    smallest = Math.min(smallest, subscription.period);
+                }
+            }
+            if (smallest == Long.MAX_VALUE) {
+                return;
+            }
+            if (task == null || smallest != period) {
+                if (task != null) {
+                    task.cancel(false);
+                }
+                period = smallest;
+                task = service.scheduleWithFixedDelay(this, 0, period, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Tells if a listener already receives the files added to this watch
+         * and selected by a matcher
+         */
+        private boolean isListening(FileMatcher matcher, FileAddedListener listener) {
+            for (Subscription subscription : subscriptions) {
+                if (subscription.matcher.equals(matcher)
+                        && subscription.fileAddedListeners.contains(listener)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Dispatches the events of the files selected by a matcher to the
+     * subscriptions of a watch to this matcher
+     */
+    private static class Dispatcher implements FileModifiedListener,
+            FileAddedListener, FileDeletedListener {
+        private final Watch watch;
+        private final FileMatcher matcher;
+
+        private Dispatcher(Watch watch, FileMatcher matcher) {
+            this.watch = watch;
+            this.matcher = matcher;
+        }
+
+        public void fileModified(FileEvent event) {
+            for (Subscription subscription : watch.subscriptions) {
+                FileEvent rebased = subscription.rebase(matcher, event);
+                if (rebased != null) {
+                    for (FileModifiedListener listener : subscription.fileModifiedListeners) {
+                        listener.fileModified(rebased);
+                    }
+                }
+            }
+        }
+
+        public void fileAdded(FileEvent event) {
+            for (Subscription subscription : watch.subscriptions) {
+                FileEvent rebased = subscription.rebase(matcher, event);
+                if (rebased != null) {
+                    for (FileAddedListener listener : subscription.fileAddedListeners) {
+                        listener.fileAdded(rebased);
+                    }
+                }
+            }
+        }
+
+        public void fileDeleted(FileEvent event) {
+            for (Subscription subscription : watch.subscriptions) {
+                FileEvent rebased = subscription.rebase(matcher, event);
+                if (rebased != null) {
+                    for (FileDeletedListener listener : subscription.fileDeletedListeners) {
+                        listener.fileDeleted(rebased);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The interest of a subscriber in the files of a folder selected by a
+     * matcher. Events are notified to the listeners of the subscription with
+     * the subscribed folder as base folder.
+     */
+    public class Subscription {
+        private final File folder;
+        private final FileMatcher matcher;
+        private volatile Watch watch;
+        private final long period;
+        private boolean started;
+        private final List<FileModifiedListener> fileModifiedListeners = new CopyOnWriteArrayList<FileModifiedListener>();
+        private final List<FileAddedListener> fileAddedListeners = new CopyOnWriteArrayList<FileAddedListener>();
+        private final List<FileDeletedListener> fileDeletedListeners = new CopyOnWriteArrayList<FileDeletedListener>();
+        private final List<ScanCompletedListener> scanCompletedListeners = new CopyOnWriteArrayList<ScanCompletedListener>();
+
+        private Subscription(File folder, FileMatcher matcher, Watch watch, long period) {
+            this.folder = folder;
+            this.matcher = matcher;
+            this.watch = watch;
+            this.period = period;
+        }
+
+        /**
+         * Gets the monitor of the watch serving this subscription, whose
+         * settings are shared with the other subscribers
+         */
+        public FileMonitor getMonitor() {
+            return watch.monitor;
+        }
+
+        /**
+         * Adds a file modified listener
+         *
+         * @param listener
+         *          the listener
+         */
+        public void addModifiedListener(FileModifiedListener listener) {
+            fileModifiedListeners.add(listener);
+        }
+
+        /**
+         * Adds a file deleted listener
+         *
+         * @param listener
+         *          the listener
+         */
+        public void addDeletedListener(FileDeletedListener listener) {
+            fileDeletedListeners.add(listener);
+        }
+
+        /**
+         * Adds a file added listener. If the watch already ran and the listener
+         * does not already listen to it, the listener is first notified of the
+         * files already known in the subscribed folder.
+         *
+         * @param listener
+         *          the listener
+         */
+        public void addAddedListener(final FileAddedListener listener) {
+            Watch watch = this.watch;
+            synchronized (watch) {
+                if (watch.monitor.hasRun() && !watch.isListening(matcher, listener)) {
+                    watch.monitor.notifyKnownFiles(matcher, new FileAddedListener() {
+                        public void fileAdded(FileEvent event) {
+                            FileEvent rebased = rebase(matcher, event);
+                            if (rebased != null) {
+                                listener.fileAdded(rebased);
+                            }
+                        }
+                    });
+                }
+                fileAddedListeners.add(listener);
+            }
+        }
+
+        /**
+         * Adds a listener notified after each run of the watch
+         *
+         * @param listener
+         *          the listener
+         */
+        public void addScanCompletedListener(ScanCompletedListener listener) {
+            scanCompletedListeners.add(listener);
+        }
+
+        /**
+         * Starts this subscription, running its watch if it does not run yet.
+         * Listeners and monitor settings are added before, so the first run
+         * of the watch already uses them.
+         */
+        public void start() {
+            WatchRegistry.this.start(this);
+        }
+
+        /**
+         * Cancels this subscription. The watch stops once all its subscriptions
+         * are cancelled.
+         */
+        public void cancel() {
+            WatchRegistry.this.cancel(this);
+        }
+
+        /**
+         * Rebases an event of the files selected by a matcher to the subscribed
+         * folder, or returns null if the changed file is not in the subscribed
+         * folder or the subscription is to another matcher
+         */
+        private FileEvent rebase(FileMatcher eventMatcher, FileEvent event) {
+            if (!matcher.equals(eventMatcher)) {
+                return null;
+            }
+            if (folder.equals(watch.folder)) {
+                return event;
+            }
+            if (!event.getSource().toString().startsWith(folder + File.separator)) {
+                return null;
+            }
+            return new FileEvent(folder, event.getSource());
+        }
+
+        private void notifyScanCompleted() {
+            for (ScanCompletedListener listener : scanCompletedListeners) {
+                listener.scanCompleted();
+            }
+        }
+    }
+
+    /**
+     * Gets the registry shared by the whole jvm
+     */
+    public static WatchRegistry getInstance() {
+        return instance;
+    }
+
+    private final ScheduledExecutorService service;
+    private final List<Watch> watches = new ArrayList<Watch>();
+
+    private WatchRegistry() {
+        this.service = Executors.newScheduledThreadPool(2, new MonitorThreadFactory());
+    }
+
+    /**
+     * Gets the scheduler running the watches, which is shared by the whole jvm
+     * and must not be shut down
+     */
+    public ScheduledExecutorService getService() {
+        return service;
+    }
+
+    /**
+     * Subscribes to the changes of the files with an extension in a folder and
+     * its subfolders. The watch runs once the subscription is started.
+     *
+     * @param folderPath
+     *          the absolute path of the folder
+     * @param extension
+     *          the file extension
+     * @param period
+     *          the period between checks, in milliseconds
+     * @return the subscription, to add listeners to
+     */
+    public Subscription subscribe(String folderPath, String extension, long period) {
+        return subscribe(folderPath, FileMatcher.forExtension(extension), period);
+    }
+
+    /**
+     * Subscribes to the changes of the files selected by a matcher in a folder
+     * and its subfolders. The watch runs once the subscription is started.
+     *
+     * @param folderPath
+     *          the absolute path of the folder
+     * @param matcher
+     *          the matcher of the files
+     * @param period
+     *          the period between checks, in milliseconds
+     * @return the subscription, to add listeners to
+     */
+    public synchronized Subscription subscribe(String folderPath, FileMatcher matcher,
+        long period)
+    {
+        File folder = new File(folderPath);
+        if (!folder.isAbsolute() || !folder.isDirectory()) {
+            throw new IllegalArgumentException("The parameter with value "
+                    + folderPath + " MUST be a folder");
+        }
+
+        // the outermost watch serves the folder, the others are taken over
+        Watch watch = null;
+        for (Watch candidate : watches) {
+            if (candidate.contains(folder) && (watch == null
+                    || watch.folder.toString().length() > candidate.folder.toString().length())) {
+                watch = candidate;
+            }
+        }
+        if (watch == null) {
+            watch = new Watch(folder);
+            for (Watch child : watches) {
+                if (watch.contains(child.folder)) {
+                    for (FileMatcher childMatcher : child.matchers) {
+                        watch.addMatcher(childMatcher);
+                    }
+                }
+            }
+            watches.add(watch);
+        }
+
+        watch.addMatcher(matcher);
+        Subscription subscription = new Subscription(folder, matcher, watch, period);
+        watch.subscriptions.add(subscription);
+        return subscription;
+    }
+
+    private synchronized void start(Subscription subscription) {
+        if (!subscription.started) {
+            subscription.started = true;
+            subscription.watch.schedule();
+        }
+    }
+
+    private synchronized void cancel(Subscription subscription) {
+        Watch watch = subscription.watch;
+        if (watch.subscriptions.remove(subscription)) {
+            if (watch.subscriptions.isEmpty()) {
+                if (watch.task != null) {
+                    watch.task.cancel(false);
+                    watch.task = null;
+                }
+                watches.remove(watch);
+            } else {
+                watch.schedule();
+            }
+        }
+    }
+
+    /**
+     * Moves the subscriptions of the watches of subfolders to the watch of a
+     * parent folder, once the parent was walked for the first time. Each
+     * watch taken over runs a last time first, so no change is missed between
+     * its last run and the first run of the parent, though a change made in
+     * between may be notified by both.
+     */
+    private void takeOver(Watch parent) {
+        List<Watch> children = new ArrayList<Watch>();
+        synchronized (this) {
+            if (!watches.contains(parent)) {
+                return;
+            }
+            for (Iterator<Watch> i = watches.iterator(); i.hasNext();) {
+                Watch child = i.next();
+                if (child != parent && parent.contains(child.folder)) {
+                    if (child.task != null) {
+                        child.task.cancel(false);
+                    }
+                    i.remove();
+                    children.add(child);
+                }
+            }
+        }
+
+        for (Watch child : children) {
+            if (child.monitor.hasRun()) {
+                child.run();
+            }
+        }
+
+        synchronized (this) {
+            for (Watch child : children) {
+                for (FileMatcher matcher : child.matchers) {
+                    parent.addMatcher(matcher);
+                }
+                for (Subscription subscription : child.subscriptions) {
+                    subscription.watch = parent;
+                    parent.subscriptions.add(subscription);
+                }
+                log.fine("Watch of " + child.folder + " taken over by the watch of "
+                        + parent.folder);
+            }
+            if (!children.isEmpty()) {
+                if (!watches.contains(parent)) {
+                    watches.add(parent);
+                }
+                parent.schedule();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of folders being watched
+     */
+    synchronized int getWatchCount() {
+        return watches.size();
+    }
+}
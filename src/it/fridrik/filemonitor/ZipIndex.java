@@ -0,0 +1,243 @@
+/*
+ * File Monitor - Watches a folder and notify files changes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The entries of a zip file, in the order of its central directory, with their
+ * CRC32 and size in parallel primitive arrays. The index is read from the
+ * central directory at the end of the file, without reading the entries
+ * themselves, so indexing a jar costs one read of its central directory.
+ * Comparing CRC32 and size rather than modification times finds the entries
+ * changed by rebuilds faster than the two seconds resolution of the zip times.
+ * A rebuilt jar usually lists its entries in the same order, so two indexes
+ * are compared entry by entry, and sorted by name only when the entries
+ * differ.
+ */
+class ZipIndex {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ENTRY_SIGNATURE = 0x02014b50;
+    private static final int ENTRY_SIZE = 46;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    final String[] names;
+    final int[] crcs;
+    final long[] sizes;
+    private int[] sorted;
+
+    private ZipIndex(String[] names, int[] crcs, long[] sizes) {
+        this.names = names;
+        this.crcs = crcs;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Reads the index of a zip file
+     *
+     * @param file
+     *          the zip file
+     * @return the index
+     * @throws IOException
+     *           if the file cannot be read or is not a zip file
+     */
+    static ZipIndex read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            ZipIndex index = readCentralDirectory(raf.getChannel());
+            return (index != null) ? index : readEntries(file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Gets the names of the entries of this index that are new or changed since
+     * a previous index was taken
+     *
+     * @param previous
+     *          the previous index, or null to get all the entries
+     * @return the names, in the order of the central directory, or by name if
+     *         the entries of the two indexes differ
+     */
+    List<String> getChangedNames(ZipIndex previous) {
+        if (previous == null) {
+            return Arrays.asList(names);
+        }
+
+        List<String> changed = new ArrayList<String>();
+        if (hasSameNames(previous)) {
+            for (int i = 0; i < names.length; i++) {
+                if (previous.crcs[i] != crcs[i] || previous.sizes[i] != sizes[i]) {
+                    changed.add(names[i]);
+                }
+            }
+            return changed;
+        }
+
+        int[] order = getSortedOrder();
+        int[] previousOrder = previous.getSortedOrder();
+        int j = 0;
+        for (int i : order) {
+            int comparison = -1;
+            while (j < previousOrder.length && (comparison =
+                    previous.names[previousOrder[j]].compareTo(names[i])) < 0) {
+                j++;
+            }
+            if (j == previousOrder.length || comparison != 0
+                    || previous.crcs[previousOrder[j]] != crcs[i]
+                    || previous.sizes[previousOrder[j]] != sizes[i]) {
+                changed.add(names[i]);
+            }
+        }
+        return changed;
+    }
+
+    private boolean hasSameNames(ZipIndex other) {
+        if (other.names.length != names.length) {
+            return false;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (!names[i].equals(other.names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the positions of the entries, sorted by name
+     */
+    private int[] getSortedOrder() {
+        if (sorted == null) {
+            Integer[] order = new Integer[names.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return names[i1].compareTo(names[i2]);
+                }
+            });
+
+            sorted = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sorted[i] = order[i];
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Reads the central directory, or returns null if it cannot be read this
+     * way, as for zip64 files
+     */
+    private static ZipIndex readCentralDirectory(FileChannel channel) throws IOException {
+        long length = channel.size();
+        int tailSize = (int) Math.min(length, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readFully(channel, length - tailSize, tailSize);
+
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("Not a zip file");
+        }
+
+        int count = tail.getShort(end + 10) & 0xFFFF;
+        long size = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long offset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL
+                || offset + size > length) {
+            return null;
+        }
+
+        ByteBuffer directory = readFully(channel, offset, (int) size);
+        String[] names = new String[count];
+        int[] crcs = new int[count];
+        long[] sizes = new long[count];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (directory.getInt(position) != ENTRY_SIGNATURE) {
+                throw new IOException("Invalid zip central directory");
+            }
+            crcs[i] = directory.getInt(position + 16);
+            sizes[i] = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            names[i] = new String(directory.array(), position + ENTRY_SIZE,
+                    nameLength, UTF8);
+            position += ENTRY_SIZE + nameLength + extraLength + commentLength;
+        }
+        return new ZipIndex(names, crcs, sizes);
+    }
+
+    /**
+     * Reads the index through the entries of a ZipFile
+     */
+    private static ZipIndex readEntries(File file) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        try {
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            int count = entries.size();
+            String[] names = new String[count];
+            int[] crcs = new int[count];
+            long[] sizes = new long[count];
+            for (int i = 0; i < count; i++) {
+                ZipEntry entry = entries.get(i);
+                names[i] = entry.getName();
+                crcs[i] = (int) entry.getCrc();
+                sizes[i] = entry.getSize();
+            }
+            return new ZipIndex(names, crcs, sizes);
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated zip file");
+            }
+        }
+        return buffer;
+    }
+}
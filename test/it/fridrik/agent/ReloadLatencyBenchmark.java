@@ -0,0 +1,558 @@
+package it.fridrik.agent;
+
+import it.fridrik.filemonitor.FileMonitor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Measures the time from writing a changed class to the new behaviour being
+ * observed in a JVM running the agent. The target JVM is forked with
+ * -javaagent, runs generated classes, and prints a line whenever a class
+ * returns a new value, which the benchmark times on receipt.
+ * <p>
+ * Usage: ReloadLatencyBenchmark agent.jar [classes [rounds [period]]]
+ */
+public class ReloadLatencyBenchmark {
+
+    private static final String PACKAGE = "bench";
+    private static final long TIMEOUT_MILLIS = 60000;
+
+    /** Number of files of the tree whose index memory is measured */
+    private static final int INDEX_FILES = 50000;
+
+    /** Number of target JVMs started with and without the agent */
+    private static final int STARTUP_RUNS = 5;
+
+    private final File agentJar;
+    private final int classCount;
+    private final int rounds;
+    private final int period;
+    private final File workFolder;
+    private final File classesFolder;
+    private final File jarsFolder;
+    private final File stagingFolder;
+    private final File targetFolder;
+    private final BlockingQueue<String> output = new LinkedBlockingQueue<String>();
+    private Process target;
+    private PrintStream commands;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println(
+                    "Usage: ReloadLatencyBenchmark agent.jar [classes [rounds [period]]]");
+            System.exit(1);
+        }
+
+        int classCount = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+        int period = (args.length > 3) ? Integer.parseInt(args[3]) : 1000;
+
+        ReloadLatencyBenchmark benchmark = new ReloadLatencyBenchmark(
+                new File(args[0]), classCount, rounds, period);
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.close();
+        }
+    }
+
+    public ReloadLatencyBenchmark(
+        File agentJar, int classCount, int rounds, int period)
+        throws IOException
+    {
+        this.agentJar = agentJar.getAbsoluteFile();
+        this.classCount = classCount;
+        this.rounds = rounds;
+        this.period = period;
+
+        workFolder = File.createTempFile("reload-benchmark", "");
+        workFolder.delete();
+        classesFolder = new File(workFolder, "classes");
+        jarsFolder = new File(workFolder, "jars");
+        stagingFolder = new File(workFolder, "staging");
+        targetFolder = new File(workFolder, "target");
+        for (File folder : Arrays.asList(
+                classesFolder, jarsFolder, stagingFolder, targetFolder)) {
+            folder.mkdirs();
+        }
+    }
+
+    public void run() throws Exception {
+        System.out.println("File index memory: " + measureIndexMemory(INDEX_FILES));
+        System.out.println("Generating " + classCount + " classes in " + workFolder);
+        compileVersions();
+        copyVersion(0, 0, classCount);
+        writeJar(0, 0);
+        measureStartup(STARTUP_RUNS);
+        startTarget();
+
+        System.out.println("Idle agent cost: " + measureIdle(10000));
+
+        List<Long> single = new ArrayList<Long>();
+        for (int round = 1; round <= rounds; round++) {
+            int index = (round * 7919) % classCount;
+            long start = System.nanoTime();
+            copyVersion(round % 2 + 1, index, 1);
+            single.add(awaitChanges("C", Collections.singletonList(index), start).get(0));
+        }
+        report("Single edit", single);
+
+        List<Integer> all = new ArrayList<Integer>();
+        for (int i = 0; i < classCount; i++) {
+            all.add(Integer.valueOf(i));
+        }
+        long start = System.nanoTime();
+        copyVersion(3, 0, classCount);
+        report("Burst of " + classCount + " classes", awaitChanges("C", all, start));
+
+        List<Long> jar = new ArrayList<Long>();
+        for (int round = 1; round <= rounds; round++) {
+            int index = (round * 7919) % classCount;
+            start = System.nanoTime();
+            writeJar(round, index);
+            jar.add(awaitChanges("J", Collections.singletonList(index), start).get(0));
+        }
+        report("Jar rebuild", jar);
+    }
+
+    public void close() {
+        if (target != null) {
+            commands.println("EXIT");
+            commands.flush();
+            target.destroy();
+        }
+        delete(workFolder);
+    }
+
+    /**
+     * Compiles the target and four versions of every generated class, each
+     * version returning a different value. Single edits alternate between
+     * versions 1 and 2, bursts use version 3.
+     */
+    private void compileVersions() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("A JDK is needed to compile classes");
+        }
+
+        for (int version = 0; version < 4; version++) {
+            File sourceFolder = new File(stagingFolder, "src" + version);
+            File outputFolder = new File(stagingFolder, "v" + version);
+            outputFolder.mkdirs();
+            List<String> compilerArgs = new ArrayList<String>(
+                    Arrays.asList("-d", outputFolder.getPath()));
+            for (int i = 0; i < classCount; i++) {
+                compilerArgs.add(writeSource(sourceFolder, "C" + i, version));
+                compilerArgs.add(writeSource(sourceFolder, "J" + i, version));
+            }
+            compile(compiler, compilerArgs);
+        }
+
+        File targetSource = new File(stagingFolder, "Target.java");
+        writeFile(targetSource, TARGET_SOURCE.replace("PACKAGE", PACKAGE));
+        compile(compiler, Arrays.asList("-d", targetFolder.getPath(),
+                targetSource.getPath()));
+    }
+
+    private static void compile(JavaCompiler compiler, List<String> compilerArgs) {
+        if (compiler.run(null, null, null,
+                compilerArgs.toArray(new String[compilerArgs.size()])) != 0) {
+            throw new IllegalStateException("Compilation failed");
+        }
+    }
+
+    private static String writeSource(File folder, String className, int version)
+            throws IOException {
+        File source = new File(folder, className + ".java");
+        writeFile(source, "package " + PACKAGE + "; public class " + className
+                + " { public static String value() { return \"v" + version
+                + "\"; } }");
+        return source.getPath();
+    }
+
+    /**
+     * Copies a version of a range of class files into the watched folder
+     */
+    private void copyVersion(int version, int first, int count) throws IOException {
+        File packageFolder = new File(classesFolder, PACKAGE);
+        packageFolder.mkdirs();
+        for (int i = first; i < first + count; i++) {
+            String name = "C" + i + ".class";
+            copy(new File(stagingFolder, "v" + version + File.separator + PACKAGE
+                    + File.separator + name), new File(packageFolder, name));
+        }
+    }
+
+    /**
+     * Rebuilds the watched jar, the class with the specified index at the
+     * version of the round and the others at version zero
+     */
+    private void writeJar(int round, int changed) throws IOException {
+        File tmp = new File(workFolder, "app.jar.tmp");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(tmp));
+        try {
+            for (int i = 0; i < classCount; i++) {
+                int version = (i == changed && round > 0) ? round % 2 + 1 : 0;
+                String name = PACKAGE + "/J" + i + ".class";
+                JarEntry entry = new JarEntry(name);
+                // jar entry times have a resolution of 2 seconds
+                entry.setTime((i == changed) ? 1000000000000L + round * 2000L
+                        : 1000000000000L);
+                out.putNextEntry(entry);
+                copy(new FileInputStream(new File(stagingFolder, "v" + version
+                        + File.separator + name)), out);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+
+        File jar = new File(jarsFolder, "app.jar");
+        if (!tmp.renameTo(jar)) {
+            jar.delete();
+            tmp.renameTo(jar);
+        }
+    }
+
+    private void startTarget() throws Exception {
+        target = createTarget(getAgentOption("")).start();
+        commands = new PrintStream(target.getOutputStream(), true);
+
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(target.getInputStream()));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        output.put(line);
+                    }
+                } catch (Exception e) {
+                    // the target exited
+                }
+            }
+        }, "target-output");
+        reader.setDaemon(true);
+        reader.start();
+
+        await("READY");
+    }
+
+    /**
+     * Creates the builder of a target JVM
+     * 
+     * @param agentOption
+     *          the -javaagent option, or null to run without the agent
+     */
+    private ProcessBuilder createTarget(String agentOption) {
+        String javaCommand = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+        String classPath = targetFolder + File.pathSeparator + classesFolder
+                + File.pathSeparator + new File(jarsFolder, "app.jar");
+        List<String> command = new ArrayList<String>();
+        command.add(javaCommand);
+        if (agentOption != null) {
+            command.add(agentOption);
+        }
+        command.addAll(Arrays.asList(
+                "-cp", classPath, PACKAGE + ".Target", String.valueOf(classCount)));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        return builder;
+    }
+
+    private String getAgentOption(String extraArgs) {
+        return "-javaagent:" + agentJar + "=classes=" + classesFolder + ",jars="
+                + jarsFolder + ",period=" + period + extraArgs;
+    }
+
+    /**
+     * Measures the time the target takes to load all the classes and be ready,
+     * without the agent and with the agent waiting for the application to be
+     * ready, which the target never signals. The runs alternate, so both see
+     * the same file cache.
+     */
+    private void measureStartup(int runs) throws Exception {
+        List<Long> without = new ArrayList<Long>();
+        List<Long> waiting = new ArrayList<Long>();
+        for (int run = 0; run < runs; run++) {
+            without.add(Long.valueOf(timeStartup(null)));
+            waiting.add(Long.valueOf(timeStartup(getAgentOption(",awaitready=true"))));
+        }
+        report("Startup without agent", without);
+        report("Startup awaiting ready", waiting);
+    }
+
+    /**
+     * Starts a target and times it until it is ready, then stops it
+     * 
+     * @return the startup time, in nanoseconds
+     */
+    private long timeStartup(String agentOption) throws Exception {
+        long start = System.nanoTime();
+        Process process = createTarget(agentOption).start();
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(process.getInputStream()));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals("READY")) {
+                    return System.nanoTime() - start;
+                }
+            }
+            throw new IllegalStateException("The target exited before being ready");
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    /**
+     * Waits until every class of the list was observed with a new value
+     * 
+     * @return the latency of each class, in nanoseconds, sorted
+     */
+    private List<Long> awaitChanges(String prefix, List<Integer> indexes, long start)
+            throws Exception {
+        List<String> pending = new ArrayList<String>();
+        for (Integer index : indexes) {
+            pending.add(prefix + index);
+        }
+
+        List<Long> latencies = new ArrayList<Long>();
+        while (!pending.isEmpty()) {
+            String[] line = await("CHANGED").split(" ");
+            if (pending.remove(line[1])) {
+                latencies.add(Long.valueOf(System.nanoTime() - start));
+            }
+        }
+        Collections.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * Lets the agent idle and reports the CPU time and memory its threads used
+     */
+    private String measureIdle(long millis) throws Exception {
+        commands.println("IDLE " + millis);
+        String[] line = await("IDLE").split(" ");
+        long cpuNanos = Long.parseLong(line[1]);
+        long allocated = Long.parseLong(line[2]);
+        return String.format("%.1f ms CPU, %d KB allocated in %d s",
+                cpuNanos / 1e6, allocated / 1024, millis / 1000);
+    }
+
+    /**
+     * Measures the heap used by a FileMonitor knowing a tree of files, compared
+     * with a HashMap from File to Long, which is how the files used to be
+     * indexed
+     */
+    private String measureIndexMemory(int fileCount) throws Exception {
+        File indexFolder = new File(workFolder, "index");
+        for (int i = 0; i < fileCount; i++) {
+            File file = getIndexFile(indexFolder, i);
+            file.getParentFile().mkdirs();
+            new FileOutputStream(file).close();
+        }
+
+        long base = getUsedMemory();
+        FileMonitor monitor = new FileMonitor(
+                Arrays.asList(indexFolder.getAbsolutePath()), "class");
+        monitor.run();
+        long monitorBytes = getUsedMemory() - base;
+
+        base = getUsedMemory();
+        HashMap<File, Long> fileMap = new HashMap<File, Long>();
+        for (int i = 0; i < fileCount; i++) {
+            File file = getIndexFile(indexFolder, i);
+            fileMap.put(file, Long.valueOf(file.lastModified()));
+        }
+        long mapBytes = getUsedMemory() - base;
+
+        int known = monitor.getSnapshot().size();
+        if (known != fileCount || fileMap.size() != fileCount) {
+            throw new IllegalStateException("Indexed " + known + " of " + fileCount + " files");
+        }
+        delete(indexFolder);
+        return String.format("%.0f bytes/file, HashMap<File, Long> %.0f bytes/file (%.1fx)",
+                (double) monitorBytes / fileCount, (double) mapBytes / fileCount,
+                (double) mapBytes / monitorBytes);
+    }
+
+    private static File getIndexFile(File indexFolder, int index) {
+        return new File(indexFolder, PACKAGE + File.separator + "p" + (index / 100)
+                + File.separator + "GeneratedClass" + index + ".class");
+    }
+
+    private static long getUsedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private String await(String prefix) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            String line = output.poll(
+                    deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            if (line == null) {
+                throw new IllegalStateException("Timed out waiting for " + prefix);
+            }
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+            System.out.println("target: " + line);
+        }
+    }
+
+    private static void report(String scenario, List<Long> latencies) {
+        Collections.sort(latencies);
+        System.out.println(String.format(
+                "%-28s n=%-5d p50=%7.1f ms  p90=%7.1f ms  p99=%7.1f ms  max=%7.1f ms",
+                scenario, latencies.size(), percentile(latencies, 50),
+                percentile(latencies, 90), percentile(latencies, 99),
+                percentile(latencies, 100)));
+    }
+
+    private static double percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(sorted.size() * percent / 100.0) - 1;
+        return sorted.get(Math.max(0, index)).longValue() / 1e6;
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        OutputStream out = new FileOutputStream(to);
+        try {
+            copy(new FileInputStream(from), out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The program run by the target JVM. It loads the generated classes, polls
+     * their values and answers the commands read from its standard input.
+     */
+    private static final String TARGET_SOURCE =
+        "package PACKAGE;\n"
+        + "import java.lang.management.*;\n"
+        + "import java.lang.reflect.Method;\n"
+        + "import java.util.*;\n"
+        + "public class Target {\n"
+        + "  public static void main(String[] args) throws Exception {\n"
+        + "    int count = Integer.parseInt(args[0]);\n"
+        + "    final String[] names = new String[count * 2];\n"
+        + "    final Method[] methods = new Method[count * 2];\n"
+        + "    final String[] values = new String[count * 2];\n"
+        + "    for (int i = 0; i < count * 2; i++) {\n"
+        + "      names[i] = (i < count ? \"C\" + i : \"J\" + (i - count));\n"
+        + "      methods[i] = Class.forName(\"PACKAGE.\" + names[i]).getMethod(\"value\");\n"
+        + "      values[i] = (String) methods[i].invoke(null);\n"
+        + "    }\n"
+        + "    final Set<Thread> own = new HashSet<Thread>();\n"
+        + "    own.add(Thread.currentThread());\n"
+        + "    Thread poller = new Thread(new Runnable() { public void run() {\n"
+        + "      try {\n"
+        + "        while (true) {\n"
+        + "          for (int i = 0; i < methods.length; i++) {\n"
+        + "            String value = (String) methods[i].invoke(null);\n"
+        + "            if (!value.equals(values[i])) {\n"
+        + "              values[i] = value;\n"
+        + "              System.out.println(\"CHANGED \" + names[i] + \" \" + value);\n"
+        + "            }\n"
+        + "          }\n"
+        + "          Thread.sleep(1);\n"
+        + "        }\n"
+        + "      } catch (Exception e) { e.printStackTrace(); }\n"
+        + "    }});\n"
+        + "    poller.setDaemon(true);\n"
+        + "    own.add(poller);\n"
+        + "    poller.start();\n"
+        + "    System.out.println(\"READY\");\n"
+        + "    Scanner in = new Scanner(System.in);\n"
+        + "    while (in.hasNextLine()) {\n"
+        + "      String[] command = in.nextLine().split(\" \");\n"
+        + "      if (command[0].equals(\"IDLE\")) {\n"
+        + "        long[] before = agentCost(own);\n"
+        + "        Thread.sleep(Long.parseLong(command[1]));\n"
+        + "        long[] after = agentCost(own);\n"
+        + "        System.out.println(\"IDLE \" + (after[0] - before[0]) + \" \" + (after[1] - before[1]));\n"
+        + "      } else if (command[0].equals(\"EXIT\")) {\n"
+        + "        System.exit(0);\n"
+        + "      }\n"
+        + "    }\n"
+        + "  }\n"
+        + "  /** CPU time and allocated bytes of the threads started by the agent */\n"
+        + "  static long[] agentCost(Set<Thread> own) {\n"
+        + "    ThreadMXBean bean = ManagementFactory.getThreadMXBean();\n"
+        + "    long[] cost = new long[2];\n"
+        + "    for (Thread thread : Thread.getAllStackTraces().keySet()) {\n"
+        + "      ThreadGroup group = thread.getThreadGroup();\n"
+        + "      if (own.contains(thread) || group == null || !group.getName().equals(\"main\")) {\n"
+        + "        continue;\n"
+        + "      }\n"
+        + "      cost[0] += Math.max(0, bean.getThreadCpuTime(thread.getId()));\n"
+        + "      if (bean instanceof com.sun.management.ThreadMXBean) {\n"
+        + "        cost[1] += Math.max(0, ((com.sun.management.ThreadMXBean) bean)\n"
+        + "            .getThreadAllocatedBytes(thread.getId()));\n"
+        + "      }\n"
+        + "    }\n"
+        + "    return cost;\n"
+        + "  }\n"
+        + "}\n";
+}
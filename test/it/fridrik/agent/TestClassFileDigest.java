@@ -0,0 +1,96 @@
+package it.fridrik.agent;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import junit.framework.TestCase;
+
+public class TestClassFileDigest extends TestCase {
+
+    private File folder;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("classfiledigest", "");
+        folder.delete();
+        folder.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    public void testDebugInformationIgnored() throws Exception {
+        byte[] original = compile(
+                "public class Foo { int bar(int a) { int b = a * 2; return b; } }");
+        byte[] reformatted = compile(
+                "public class Foo {\n\n  // doubles a\n  int bar(int a) {\n"
+                + "    int b = a * 2;\n\n    return b;\n  }\n}\n");
+        byte[] changed = compile(
+                "public class Foo { int bar(int a) { int b = a * 3; return b; } }");
+
+        assertFalse(Arrays.equals(original, reformatted));
+        assertTrue(Arrays.equals(ClassFileDigest.digest(original),
+                ClassFileDigest.digest(reformatted)));
+        assertFalse(Arrays.equals(ClassFileDigest.digest(original),
+                ClassFileDigest.digest(changed)));
+    }
+
+    public void testInvalidClassFile() {
+        assertNull(ClassFileDigest.digest(new byte[] { 1, 2, 3 }));
+        assertNull(ClassFileDigest.digest(
+                new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE }));
+    }
+
+    public void testDebugOnlyChangeSkipped() throws Exception {
+        byte[] original = compile(
+                "public class Foo { int bar(int a) { return a * 2; } }");
+        byte[] reformatted = compile(
+                "public class Foo {\n  int bar(int a) {\n    return a * 2;\n  }\n}\n");
+        ClassDigests digests = new ClassDigests();
+        digests.configure(true, Arrays.asList(folder));
+
+        assertFalse(digests.isDebugOnlyChange("Foo", original));
+        assertTrue(digests.isDebugOnlyChange("Foo", reformatted));
+        digests.invalidate("Foo");
+        assertFalse(digests.isDebugOnlyChange("Foo", reformatted));
+        assertEquals(1, digests.getSkipped());
+
+        digests.configure(false, Arrays.asList(folder));
+        assertFalse(digests.isDebugOnlyChange("Foo", reformatted));
+    }
+
+    private byte[] compile(String source) throws IOException {
+        File sourceFile = new File(folder, "Foo.java");
+        FileOutputStream out = new FileOutputStream(sourceFile);
+        out.write(source.getBytes("UTF-8"));
+        out.close();
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-g", "-d",
+                folder.getAbsolutePath(), sourceFile.getAbsolutePath()));
+
+        File classFile = new File(folder, "Foo.class");
+        byte[] bytes = new byte[(int) classFile.length()];
+        FileInputStream in = new FileInputStream(classFile);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,72 @@
+package it.fridrik.agent;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestLoadedClassIndex extends TestCase implements InvocationHandler {
+
+    private final List<Class<?>> loaded = new ArrayList<Class<?>>();
+    private int refreshes;
+    private LoadedClassIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        index = new LoadedClassIndex(createInstrumentation(), 60000);
+    }
+
+    public void testClassLoadedAfterRefresh() throws Exception {
+        loaded.add(Integer.class);
+        assertEquals(1, index.getClasses(Integer.class.getName()).size());
+        assertEquals(1, refreshes);
+
+        assertTrue(index.getClasses(String.class.getName()).isEmpty());
+        assertEquals(1, refreshes);
+
+        load(String.class);
+        List<Class<?>> classes = index.getClasses(String.class.getName());
+        assertEquals(1, classes.size());
+        assertEquals(String.class, classes.get(0));
+        assertEquals(2, refreshes);
+
+        assertTrue(index.getClasses(Long.class.getName()).isEmpty());
+        assertEquals(2, refreshes);
+    }
+
+    public void testClassStillBeingLoaded() throws Exception {
+        index.refresh();
+        index.transform(null, "java/lang/String", null, null, new byte[0]);
+        assertTrue(index.getClasses(String.class.getName()).isEmpty());
+        loaded.add(String.class);
+        assertEquals(1, index.getClasses(String.class.getName()).size());
+        assertEquals(3, refreshes);
+    }
+
+    private void load(Class<?> clazz) {
+        assertNull(index.transform(clazz.getClassLoader(),
+                clazz.getName().replace('.', '/'), null, null, new byte[0]));
+        loaded.add(clazz);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getAllLoadedClasses")) {
+            refreshes++;
+            return loaded.toArray(new Class<?>[loaded.size()]);
+        }
+        if (method.getReturnType() == boolean.class) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    private Instrumentation createInstrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(
+                Instrumentation.class.getClassLoader(),
+                new Class<?>[] { Instrumentation.class }, this);
+    }
+}
@@ -0,0 +1,75 @@
+package it.fridrik.agent;
+
+import java.io.File;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+
+import junit.framework.TestCase;
+
+public class TestPendingDefinitions extends TestCase {
+
+    private static final byte[] OLD_BYTES = { 1, 2, 3 };
+    private static final byte[] NEW_BYTES = { 1, 2, 4 };
+
+    public void testChangedBytesServedOnLoad() throws Exception {
+        PendingDefinitions definitions = new PendingDefinitions(10, 60000);
+        definitions.put("a.Foo", NEW_BYTES, null);
+
+        assertSame(NEW_BYTES, definitions.transform(null, "a/Foo", null, null, OLD_BYTES));
+        assertNull(definitions.transform(null, "a/Foo", null, null, NEW_BYTES.clone()));
+        assertNull(definitions.transform(null, "a/Bar", null, null, OLD_BYTES));
+        assertNull(definitions.transform(null, "a/Foo", Object.class, null, OLD_BYTES));
+        assertEquals(1, definitions.getServed());
+
+        definitions.remove("a.Foo");
+        assertNull(definitions.transform(null, "a/Foo", null, null, OLD_BYTES));
+    }
+
+    public void testServedOnce() throws Exception {
+        PendingDefinitions definitions = new PendingDefinitions(10, 60000);
+        definitions.put("a.Foo", NEW_BYTES, null);
+
+        assertSame(NEW_BYTES, definitions.transform(null, "a/Foo", null, null, OLD_BYTES));
+        assertNull(definitions.transform(null, "a/Foo", null, null, OLD_BYTES));
+        assertEquals(0, definitions.size());
+        assertEquals(1, definitions.getServed());
+    }
+
+    public void testServedOnlyToTheSource() throws Exception {
+        File source = new File(System.getProperty("java.io.tmpdir"), "classes");
+        File other = new File(System.getProperty("java.io.tmpdir"), "other");
+        PendingDefinitions definitions = new PendingDefinitions(10, 60000);
+        definitions.put("a.Foo", NEW_BYTES, source);
+
+        assertNull(definitions.transform(null, "a/Foo", null, null, OLD_BYTES));
+        assertNull(definitions.transform(null, "a/Foo", null, domain(other), OLD_BYTES));
+        assertSame(NEW_BYTES, definitions.transform(null, "a/Foo", null, domain(source), OLD_BYTES));
+        assertNull(definitions.transform(null, "a/Foo", null, domain(source), OLD_BYTES));
+    }
+
+    public void testEldestEvicted() throws Exception {
+        PendingDefinitions definitions = new PendingDefinitions(2, 60000);
+        definitions.put("a.Foo", NEW_BYTES, null);
+        definitions.put("a.Bar", NEW_BYTES, null);
+        definitions.put("a.Foo", NEW_BYTES, null);
+        definitions.put("a.Baz", NEW_BYTES, null);
+
+        assertEquals(2, definitions.size());
+        assertNull(definitions.transform(null, "a/Bar", null, null, OLD_BYTES));
+        assertNotNull(definitions.transform(null, "a/Foo", null, null, OLD_BYTES));
+    }
+
+    public void testExpired() throws Exception {
+        PendingDefinitions definitions = new PendingDefinitions(10, 0);
+        definitions.put("a.Foo", NEW_BYTES, null);
+
+        assertNull(definitions.transform(null, "a/Foo", null, null, OLD_BYTES));
+        assertEquals(0, definitions.size());
+    }
+
+    private static ProtectionDomain domain(File location) throws Exception {
+        return new ProtectionDomain(new CodeSource(location.toURI().toURL(),
+                (Certificate[]) null), null);
+    }
+}
@@ -0,0 +1,167 @@
+package it.fridrik.agent;
+
+import java.io.File;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestRedefinitionScheduler extends TestCase implements InvocationHandler {
+
+    private static final Class<?>[] CLASSES = { String.class, Integer.class,
+            Long.class, Short.class, Byte.class, Double.class, Float.class,
+            Character.class, Boolean.class, Number.class, Math.class,
+            StringBuilder.class, Thread.class, Runtime.class, System.class,
+            Object.class };
+
+    private File root;
+    private Smith smith;
+    private final Set<Class<?>> bad = new HashSet<Class<?>>();
+    private final Set<Class<?>> badTogether = new HashSet<Class<?>>();
+    private final List<Class<?>> redefined = new ArrayList<Class<?>>();
+    private final List<List<Class<?>>> calls = new ArrayList<List<Class<?>>>();
+
+    @Override
+    protected void setUp() throws Exception {
+        root = File.createTempFile("scheduler", "");
+        root.delete();
+        root.mkdir();
+        smith = new Smith(createInstrumentation(),
+                new SmithArgs("classes=" + root.getAbsolutePath()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        smith.stop();
+        root.delete();
+    }
+
+    public void testAllRedefined() throws Exception {
+        RedefinitionScheduler.BatchReport report = redefine("");
+        assertEquals(1, report.calls);
+        assertEquals(CLASSES.length, report.redefined);
+        assertTrue(report.failures.isEmpty());
+    }
+
+    public void testBadClassIsIsolated() throws Exception {
+        bad.add(Thread.class);
+        RedefinitionScheduler.BatchReport report = redefine("");
+        assertEquals(CLASSES.length - 1, report.redefined);
+        assertEquals(CLASSES.length - 1, redefined.size());
+        assertFalse(redefined.contains(Thread.class));
+        assertEquals(1, report.failures.size());
+        ClassDefinition failed = report.failures.keySet().iterator().next();
+        assertEquals(Thread.class, failed.getDefinitionClass());
+        assertTrue(report.failures.get(failed) instanceof UnsupportedOperationException);
+        assertTrue(report.calls <= 1 + 2 * 4);
+    }
+
+    public void testSeveralBadClasses() throws Exception {
+        bad.add(String.class);
+        bad.add(Math.class);
+        bad.add(Object.class);
+        RedefinitionScheduler.BatchReport report = redefine("");
+        assertEquals(CLASSES.length - 3, redefined.size());
+        assertEquals(3, report.failures.size());
+    }
+
+    public void testClassesBadOnlyTogether() throws Exception {
+        badTogether.add(Long.class);
+        badTogether.add(Short.class);
+        RedefinitionScheduler.BatchReport report = redefine("");
+        assertEquals(CLASSES.length, report.redefined);
+        assertTrue(report.failures.isEmpty());
+        assertTrue(calls.contains(Arrays.<Class<?>>asList(Short.class)));
+    }
+
+    public void testBadClassInChunks() throws Exception {
+        bad.add(Long.class);
+        RedefinitionScheduler.BatchReport report = redefine(",pausebudget=1000000");
+        assertEquals(CLASSES.length - 1, report.redefined);
+        assertEquals(1, report.failures.size());
+    }
+
+    public void testCopiesOfAClassInTheSameChunk() throws Exception {
+        RedefinitionScheduler.BatchReport report = redefine(",pausebudget=1000000", 3);
+        assertEquals(3 * CLASSES.length, report.redefined);
+        assertTrue(calls.size() > 1);
+        for (List<Class<?>> call : calls) {
+            assertEquals(0, call.size() % 3);
+            for (int i = 0; i < call.size(); i += 3) {
+                assertEquals(call.get(i), call.get(i + 1));
+                assertEquals(call.get(i), call.get(i + 2));
+            }
+        }
+    }
+
+    public void testBadClassWithCopies() throws Exception {
+        bad.add(Float.class);
+        RedefinitionScheduler.BatchReport report = redefine("", 2);
+        assertEquals(2 * (CLASSES.length - 1), report.redefined);
+        assertEquals(2, report.failures.size());
+    }
+
+    private RedefinitionScheduler.BatchReport redefine(String args) {
+        return redefine(args, 1);
+    }
+
+    private RedefinitionScheduler.BatchReport redefine(String args, int copies) {
+        RedefinitionScheduler scheduler = new RedefinitionScheduler(smith,
+                createInstrumentation(),
+                new SmithArgs("classes=" + root.getAbsolutePath() + args));
+        List<ClassDefinition> definitions = new ArrayList<ClassDefinition>();
+        for (Class<?> definitionClass : CLASSES) {
+            for (int i = 0; i < copies; i++) {
+                definitions.add(new ClassDefinition(definitionClass, new byte[0]));
+            }
+        }
+        return scheduler.redefine(definitions);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("redefineClasses")) {
+            List<Class<?>> classes = new ArrayList<Class<?>>();
+            for (ClassDefinition definition : (ClassDefinition[]) args[0]) {
+                classes.add(definition.getDefinitionClass());
+            }
+            calls.add(classes);
+            if (!badTogether.isEmpty() && classes.containsAll(badTogether)) {
+                throw new UnsupportedOperationException(
+                        "class redefinition failed: attempted to change the schema");
+            }
+            for (ClassDefinition definition : (ClassDefinition[]) args[0]) {
+                if (bad.contains(definition.getDefinitionClass())) {
+                    throw new UnsupportedOperationException(
+                            "class redefinition failed: attempted to add a field");
+                }
+            }
+            redefined.addAll(classes);
+            return null;
+        }
+        if (name.equals("getAllLoadedClasses")) {
+            return new Class<?>[0];
+        }
+        if (method.getReturnType() == boolean.class) {
+            return Boolean.valueOf(name.equals("isRedefineClassesSupported"));
+        }
+        if (method.getReturnType() == long.class) {
+            return Long.valueOf(0);
+        }
+        return null;
+    }
+
+    private Instrumentation createInstrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(
+                Instrumentation.class.getClassLoader(),
+                new Class<?>[] { Instrumentation.class }, this);
+    }
+}
@@ -0,0 +1,128 @@
+package it.fridrik.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TestReloadTracker extends TestCase implements ReloadListener {
+
+    private ScheduledExecutorService service;
+    private ReloadTracker tracker;
+    private final List<ReloadEvent> redefined = new ArrayList<ReloadEvent>();
+    private final CountDownLatch recovered = new CountDownLatch(1);
+
+    @Override
+    protected void setUp() throws Exception {
+        service = Executors.newSingleThreadScheduledExecutor();
+        tracker = new ReloadTracker(service, 10, 2000);
+        tracker.addListener(this);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        service.shutdownNow();
+    }
+
+    public void testListenersAndRecovery() throws Exception {
+        ReloadEvent event = tracker.classesRedefined(classes(String.class), 1, 3000000);
+        assertEquals(1, redefined.size());
+        assertSame(event, redefined.get(0));
+        assertEquals(1, event.getFailed());
+        assertEquals(3, event.getPauseMillis());
+
+        assertTrue(recovered.await(5, TimeUnit.SECONDS));
+        assertEquals(0, event.getWarmUpMillis());
+        assertTrue(event.getRecoveryMillis() >= 0);
+        assertTrue(event.getRecoveryMillis() <= 2000 + 100);
+    }
+
+    public void testWarmUp() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger others = new AtomicInteger();
+        final AtomicInteger priority = new AtomicInteger();
+        tracker.addWarmUp(String.class.getName(), new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+                priority.set(Thread.currentThread().getPriority());
+            }
+        });
+        tracker.addWarmUp(String.class.getName(), new Runnable() {
+            public void run() {
+                failures.incrementAndGet();
+                throw new IllegalStateException("warm-up failure");
+            }
+        });
+        tracker.addWarmUp(Integer.class.getName(), new Runnable() {
+            public void run() {
+                others.incrementAndGet();
+            }
+        });
+        tracker.setWarmUpIterations(3);
+
+        ReloadEvent event = tracker.classesRedefined(
+                classes(String.class, String.class), 0, 0);
+        assertTrue(recovered.await(5, TimeUnit.SECONDS));
+        assertEquals(3, runs.get());
+        assertEquals(1, failures.get());
+        assertEquals(0, others.get());
+        assertEquals(Thread.MIN_PRIORITY, priority.get());
+        assertTrue(event.getWarmUpMillis() >= 0);
+    }
+
+    public void testWarmUpError() throws Exception {
+        tracker.addWarmUp(String.class.getName(), new Runnable() {
+            public void run() {
+                throw new NoSuchMethodError("warm-up error");
+            }
+        });
+        tracker.setWarmUpIterations(3);
+
+        ReloadEvent event = tracker.classesRedefined(classes(String.class), 0, 0);
+        assertTrue(recovered.await(5, TimeUnit.SECONDS));
+        assertTrue(event.getWarmUpMillis() >= 0);
+        assertTrue(System.currentTimeMillis() - event.getTime() < 2000);
+    }
+
+    public void testNoWarmUpWhenDisabled() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        tracker.addWarmUp(String.class.getName(), new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+
+        tracker.classesRedefined(classes(String.class), 0, 0);
+        assertTrue(recovered.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    public void testHistory() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            tracker.classesRedefined(classes(String.class), i, 0);
+        }
+        List<ReloadEvent> history = tracker.getHistory();
+        assertEquals(16, history.size());
+        assertEquals(4, history.get(0).getFailed());
+        assertEquals(19, history.get(15).getFailed());
+    }
+
+    public void classesRedefined(ReloadEvent event) {
+        redefined.add(event);
+    }
+
+    public void reloadRecovered(ReloadEvent event) {
+        recovered.countDown();
+    }
+
+    private static List<Class<?>> classes(Class<?>... classes) {
+        return Arrays.asList(classes);
+    }
+}
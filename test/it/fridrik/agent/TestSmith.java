@@ -0,0 +1,71 @@
+package it.fridrik.agent;
+
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class TestSmith extends TestCase implements InvocationHandler {
+
+    private File root;
+    private Smith smith;
+
+    @Override
+    protected void setUp() throws Exception {
+        root = File.createTempFile("smith", "");
+        root.delete();
+        root.mkdir();
+        smith = new Smith(createInstrumentation(),
+                new SmithArgs("classes=" + root.getAbsolutePath()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        smith.stop();
+        root.delete();
+    }
+
+    public void testInvalidFolderLeavesAgentUnchanged() throws Exception {
+        Logger log = Logger.getLogger(Smith.class.getName());
+        Level level = log.getLevel();
+        File missing = new File(root, "missing");
+        try {
+            smith.configure(new SmithArgs("classes=" + root.getAbsolutePath()
+                    + File.pathSeparator + missing.getAbsolutePath() + ",loglevel=FINEST"));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(level, log.getLevel());
+        assertFalse(smith.isStopped());
+    }
+
+    public void testStop() throws Exception {
+        smith.stop();
+        assertTrue(smith.isStopped());
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getAllLoadedClasses")) {
+            return new Class<?>[0];
+        }
+        if (method.getReturnType() == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (method.getReturnType() == long.class) {
+            return Long.valueOf(0);
+        }
+        return null;
+    }
+
+    private Instrumentation createInstrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(
+                Instrumentation.class.getClassLoader(),
+                new Class<?>[] { Instrumentation.class }, this);
+    }
+}
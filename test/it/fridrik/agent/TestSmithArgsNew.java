@@ -59,6 +59,69 @@ public class TestSmithArgsNew extends TestCase {
         assertTrue(args.isValid());
     }
 
+    public void testScanBudget() {
+        String agentargs = " classes = /home/federico/classes , scanbudget = 5000 , scantime = 20 , maxlatency = 30000 ";
+        SmithArgs args = new SmithArgs(agentargs);
+
+        assertEquals(5000, args.getScanBudget());
+        assertEquals(20, args.getScanTime());
+        assertEquals(30000, args.getMaxLatency());
+        assertTrue(args.isValid());
+    }
+
+    public void testLoaders() {
+        assertFalse(new SmithArgs("classes=/home/federico/classes").isSameSourceOnly());
+        assertFalse(new SmithArgs("classes=/home/federico/classes,loaders=all").isSameSourceOnly());
+        assertTrue(new SmithArgs("classes=/home/federico/classes,loaders= source ").isSameSourceOnly());
+    }
+
+    public void testPauseBudgetAndLoad() {
+        String agentargs = "classes=/home/federico/classes,pausebudget=5,maxload=0.75,maxdeferral=10000,loadgauge=com.example.Gauge";
+        SmithArgs args = new SmithArgs(agentargs);
+
+        assertEquals(5, args.getPauseBudget());
+        assertEquals(Double.valueOf(0.75), Double.valueOf(args.getMaxLoad()));
+        assertEquals(10000, args.getMaxDeferral());
+        assertEquals("com.example.Gauge", args.getLoadGauge());
+        assertEquals(30000, new SmithArgs(
+                "classes=/home/federico/classes,maxdeferral=30s").getMaxDeferral());
+    }
+
+    public void testStartDelay() {
+        SmithArgs args = new SmithArgs("classes=/home/federico/classes,startdelay=15000,awaitready=true");
+
+        assertEquals(15000, args.getStartDelay());
+        assertTrue(args.isAwaitReady());
+        assertFalse(new SmithArgs("classes=/home/federico/classes").isAwaitReady());
+    }
+
+    public void testSkipDebug() {
+        assertFalse(new SmithArgs("classes=/home/federico/classes").isSkipDebug());
+        SmithArgs args = new SmithArgs("classes=/home/federico/classes,skipdebug=true");
+        assertTrue(args.isSkipDebug());
+        assertTrue(args.toString().endsWith(",skipdebug=true"));
+    }
+
+    public void testTrace() {
+        assertNull(new SmithArgs("classes=/home/federico/classes").getTrace());
+        SmithArgs args = new SmithArgs("classes=/home/federico/classes,trace=/tmp/smith.trace");
+        assertEquals("/tmp/smith.trace", args.getTrace());
+        assertTrue(args.toString().endsWith(",trace=/tmp/smith.trace"));
+    }
+
+    public void testWarmUp() {
+        assertEquals(0, new SmithArgs("classes=/home/federico/classes").getWarmUp());
+        SmithArgs args = new SmithArgs("classes=/home/federico/classes,warmup=50");
+        assertEquals(50, args.getWarmUp());
+        assertTrue(args.toString().endsWith(",warmup=50"));
+        assertEquals(0, new SmithArgs("classes=/home/federico/classes,warmup=x").getWarmUp());
+    }
+
+    public void testSettle() {
+        assertEquals(100, new SmithArgs("classes=/home/federico/classes").getSettle());
+        assertEquals(0, new SmithArgs("classes=/home/federico/classes,settle=0").getSettle());
+    }
+
     public void testToString() {
         String agentargs = " classes = /home/federico/classes , jars = /home/federico/jars , period = 39 ";
         SmithArgs args = new SmithArgs(agentargs);
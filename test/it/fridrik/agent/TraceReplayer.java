@@ -0,0 +1,511 @@
+package it.fridrik.agent;
+
+import it.fridrik.filemonitor.ChangeTrace;
+import it.fridrik.filemonitor.ScanCompletedListener;
+import it.fridrik.filemonitor.WatchRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Replays a change trace recorded with the trace agent argument against a
+ * Smith agent running on a stub Instrumentation, and reports the time from
+ * each replayed change to the redefinition of the changed class. The trace
+ * holds the changes as the monitors observed them, so the replay reproduces
+ * their order and timing, at the original speed or faster.
+ * <p>
+ * The files of the trace are recreated in a work folder, with generated empty
+ * classes named after the recorded class files and jar entries. The stub
+ * Instrumentation reports these classes as loaded and can simulate the pause
+ * each redefined class costs.
+ * <p>
+ * Usage: TraceReplayer trace [speed [pause [agent-args]]], where speed is 1 to
+ * replay at the original speed, more to replay faster and 0 to replay without
+ * waiting, and pause the microseconds each redefined class pauses the stub.
+ */
+public class TraceReplayer {
+
+    private static final long TIMEOUT_MILLIS = 60000;
+    private static final int PERIOD = 1000;
+
+    private final ChangeTrace trace;
+    private final double speed;
+    private final long pauseMicros;
+    private final String agentArgs;
+    private final File workFolder;
+    private final File jarsFolder;
+    private final Map<File, File> classFolders = new LinkedHashMap<File, File>();
+    private final Map<String, Set<String>> jarEntries = new HashMap<String, Set<String>>();
+    private final Map<String, Class<?>> classes = new LinkedHashMap<String, Class<?>>();
+    private final Map<String, Long> pendingChanges = new HashMap<String, Long>();
+    private final List<Long> latencies = new ArrayList<Long>();
+    private int version;
+    private int redefinitions;
+    private int redefinedClasses;
+    private int largestBatch;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReplayer trace [speed [pause [agent-args]]]");
+            System.exit(1);
+        }
+
+        double speed = (args.length > 1) ? Double.parseDouble(args[1]) : 1;
+        long pauseMicros = (args.length > 2) ? Long.parseLong(args[2]) : 0;
+        String agentArgs = (args.length > 3) ? args[3] : "";
+
+        TraceReplayer replayer = new TraceReplayer(
+                ChangeTrace.read(new File(args[0])), speed, pauseMicros, agentArgs);
+        try {
+            replayer.run();
+        } finally {
+            replayer.close();
+        }
+    }
+
+    public TraceReplayer(
+        ChangeTrace trace, double speed, long pauseMicros, String agentArgs)
+        throws IOException
+    {
+        this.trace = trace;
+        this.speed = speed;
+        this.pauseMicros = pauseMicros;
+        this.agentArgs = agentArgs;
+
+        workFolder = File.createTempFile("trace-replay", "");
+        workFolder.delete();
+        jarsFolder = new File(workFolder, "jars");
+        jarsFolder.mkdirs();
+    }
+
+    public void run() throws Exception {
+        List<ChangeTrace.Change> changes = trace.getChanges();
+        System.out.println("Replaying " + changes.size() + " changes recorded in "
+                + (changes.isEmpty() ? 0 : changes.get(changes.size() - 1).getTime())
+                + " ms");
+
+        mapFolders(changes);
+        defineClasses();
+        writeInitialFiles(changes);
+
+        Smith smith = new Smith(createInstrumentation(), new SmithArgs(getAgentArgs()));
+        try {
+            awaitFirstScan();
+            long start = System.nanoTime();
+            for (ChangeTrace.Change change : changes) {
+                if (speed > 0) {
+                    long due = start + (long) (change.getTime() * 1e6 / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                apply(change);
+            }
+            awaitRedefinitions();
+            System.out.println("Replayed in (ms): " + TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - start));
+        } finally {
+            smith.stop();
+        }
+        report();
+    }
+
+    public void close() {
+        delete(workFolder);
+    }
+
+    /**
+     * Maps the recorded folders to folders of the work folder: the folders of
+     * the jars to the jars folder, the other ones to a classes folder each
+     */
+    private void mapFolders(List<ChangeTrace.Change> changes) {
+        for (ChangeTrace.Change change : changes) {
+            if (isJar(change)) {
+                Set<String> entries = jarEntries.get(change.getPath());
+                if (entries == null) {
+                    entries = new LinkedHashSet<String>();
+                    jarEntries.put(change.getPath(), entries);
+                }
+                entries.addAll(change.getEntryNames());
+            } else if (!classFolders.containsKey(change.getBaseFolder())) {
+                File folder = new File(workFolder, "classes" + classFolders.size());
+                folder.mkdirs();
+                classFolders.put(change.getBaseFolder(), folder);
+            }
+        }
+        if (classFolders.isEmpty()) {
+            File folder = new File(workFolder, "classes0");
+            folder.mkdirs();
+            classFolders.put(folder, folder);
+        }
+    }
+
+    /**
+     * Defines an empty class for every class file and jar entry of the trace,
+     * with the folder or jar it is replayed in as code source
+     */
+    private void defineClasses() throws Exception {
+        StubClassLoader loader = new StubClassLoader();
+        for (ChangeTrace.Change change : trace.getChanges()) {
+            if (!isJar(change)) {
+                define(loader, change.getPath(),
+                        classFolders.get(change.getBaseFolder()));
+            }
+        }
+        for (Map.Entry<String, Set<String>> jar : jarEntries.entrySet()) {
+            for (String entryName : jar.getValue()) {
+                define(loader, entryName, new File(jarsFolder, jar.getKey()));
+            }
+        }
+    }
+
+    private void define(StubClassLoader loader, String path, File source)
+            throws Exception {
+        if (!path.endsWith(".class")) {
+            return;
+        }
+        String className = toClassName(path);
+        if (classes.containsKey(className) || className.startsWith("java.")
+                || className.indexOf('-') >= 0) {
+            return;
+        }
+        ProtectionDomain domain = new ProtectionDomain(new CodeSource(
+                source.toURI().toURL(), (Certificate[]) null), null);
+        try {
+            classes.put(className, loader.define(
+                    className, createClass(className, 0), domain));
+        } catch (LinkageError e) {
+            System.out.println("Cannot define " + className + ": " + e);
+        }
+    }
+
+    /**
+     * Writes the files changed by the trace that existed before it started
+     */
+    private void writeInitialFiles(List<ChangeTrace.Change> changes)
+            throws IOException {
+        Set<String> seen = new HashSet<String>();
+        for (ChangeTrace.Change change : changes) {
+            File file = getFile(change);
+            if (seen.add(file.getPath()) && change.getType() != ChangeTrace.Type.ADDED) {
+                write(change, file, Collections.<String>emptyList());
+            }
+        }
+    }
+
+    private void apply(ChangeTrace.Change change) throws IOException {
+        File file = getFile(change);
+        switch (change.getType()) {
+        case ADDED:
+            write(change, file, Collections.<String>emptyList());
+            break;
+        case MODIFIED:
+            if (!isJar(change)) {
+                synchronized (pendingChanges) {
+                    pendingChanges.put(toClassName(change.getPath()), System.nanoTime());
+                }
+                write(change, file, Collections.<String>emptyList());
+            }
+            break;
+        case DELETED:
+            file.delete();
+            break;
+        case JAR_MODIFIED:
+            synchronized (pendingChanges) {
+                for (String entryName : change.getEntryNames()) {
+                    if (entryName.endsWith(".class")) {
+                        pendingChanges.put(toClassName(entryName), System.nanoTime());
+                    }
+                }
+            }
+            write(change, file, change.getEntryNames());
+            break;
+        }
+    }
+
+    /**
+     * Writes a class file or a jar. The jar is written with every entry the
+     * trace changes, the changed ones with a new version of their class.
+     */
+    private void write(ChangeTrace.Change change, File file, List<String> changed)
+            throws IOException {
+        version++;
+        file.getParentFile().mkdirs();
+        if (!isJar(change)) {
+            writeFile(file, createClass(toClassName(change.getPath()), version));
+            return;
+        }
+
+        File tmp = new File(workFolder, "replay.jar.tmp");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(tmp));
+        try {
+            for (String entryName : jarEntries.get(change.getPath())) {
+                out.putNextEntry(new JarEntry(entryName));
+                if (entryName.endsWith(".class")) {
+                    out.write(createClass(toClassName(entryName),
+                            changed.contains(entryName) ? version : 0));
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            tmp.renameTo(file);
+        }
+    }
+
+    private File getFile(ChangeTrace.Change change) {
+        File folder = isJar(change) ? jarsFolder : classFolders.get(change.getBaseFolder());
+        return new File(folder, change.getPath().replace('/', File.separatorChar));
+    }
+
+    private String getAgentArgs() {
+        StringBuilder sb = new StringBuilder("classes=");
+        for (File folder : classFolders.values()) {
+            if (sb.length() > "classes=".length()) {
+                sb.append(File.pathSeparator);
+            }
+            sb.append(folder.getAbsolutePath());
+        }
+        if (!jarEntries.isEmpty()) {
+            sb.append(",jars=").append(jarsFolder.getAbsolutePath());
+        }
+        sb.append(",period=").append(PERIOD);
+        if (agentArgs.length() > 0) {
+            sb.append(",").append(agentArgs);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Waits until the watches Smith subscribed to know the initial files
+     */
+    private void awaitFirstScan() throws InterruptedException {
+        List<File> folders = new ArrayList<File>(classFolders.values());
+        if (!jarEntries.isEmpty()) {
+            folders.add(jarsFolder);
+        }
+        final CountDownLatch latch = new CountDownLatch(folders.size());
+        List<WatchRegistry.Subscription> subscriptions =
+                new ArrayList<WatchRegistry.Subscription>();
+        for (File folder : folders) {
+            WatchRegistry.Subscription subscription = WatchRegistry.getInstance()
+                    .subscribe(folder.getAbsolutePath(),
+                            folder == jarsFolder ? "jar" : "class", PERIOD);
+            subscription.addScanCompletedListener(new ScanCompletedListener() {
+                private boolean completed;
+
+                public void scanCompleted() {
+                    if (!completed) {
+                        completed = true;
+                        latch.countDown();
+                    }
+                }
+            });
+            subscription.start();
+            subscriptions.add(subscription);
+        }
+        try {
+            if (!latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Timed out waiting for the first scan");
+            }
+        } finally {
+            for (WatchRegistry.Subscription subscription : subscriptions) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    private void awaitRedefinitions() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (pendingChanges) {
+                if (pendingChanges.isEmpty()) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        System.out.println("Timed out waiting for " + pendingChanges.size()
+                + " redefinition(s)");
+    }
+
+    private void report() {
+        System.out.println("Redefinitions: " + redefinitions + ", classes redefined: "
+                + redefinedClasses + ", largest batch: " + largestBatch);
+        if (latencies.isEmpty()) {
+            return;
+        }
+        Collections.sort(latencies);
+        System.out.println(String.format(
+                "Change to redefinition     n=%-5d p50=%7.1f ms  p90=%7.1f ms  p99=%7.1f ms  max=%7.1f ms",
+                latencies.size(), percentile(50), percentile(90), percentile(99),
+                percentile(100)));
+    }
+
+    private double percentile(int percent) {
+        int index = (int) Math.ceil(latencies.size() * percent / 100.0) - 1;
+        return latencies.get(Math.max(0, index)).longValue() / 1e6;
+    }
+
+    /**
+     * Creates an Instrumentation reporting the generated classes as loaded and
+     * recording their redefinitions
+     */
+    private Instrumentation createInstrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(
+                Instrumentation.class.getClassLoader(),
+                new Class<?>[] { Instrumentation.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("getAllLoadedClasses")) {
+                            return classes.values().toArray(new Class<?>[classes.size()]);
+                        }
+                        if (name.equals("redefineClasses")) {
+                            redefine((ClassDefinition[]) args[0]);
+                            return null;
+                        }
+                        if (name.equals("isRedefineClassesSupported")
+                                || name.equals("isModifiableClass")) {
+                            return Boolean.TRUE;
+                        }
+                        return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private void redefine(ClassDefinition[] definitions) throws InterruptedException {
+        if (pauseMicros > 0) {
+            TimeUnit.MICROSECONDS.sleep(pauseMicros * definitions.length);
+        }
+        long now = System.nanoTime();
+        synchronized (pendingChanges) {
+            redefinitions++;
+            redefinedClasses += definitions.length;
+            largestBatch = Math.max(largestBatch, definitions.length);
+            for (ClassDefinition definition : definitions) {
+                Long changed = pendingChanges.remove(
+                        definition.getDefinitionClass().getName());
+                if (changed != null) {
+                    latencies.add(now - changed.longValue());
+                }
+            }
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == long.class) {
+            return Long.valueOf(0);
+        }
+        if (type == int.class) {
+            return Integer.valueOf(0);
+        }
+        return null;
+    }
+
+    private static boolean isJar(ChangeTrace.Change change) {
+        return change.getType() == ChangeTrace.Type.JAR_MODIFIED
+                || change.getPath().endsWith(".jar");
+    }
+
+    private static String toClassName(String path) {
+        return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    }
+
+    /**
+     * Creates an empty class. The version is stored as an unused constant, so
+     * each version has different bytes.
+     */
+    private static byte[] createClass(String className, int version) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(50);
+            out.writeShort(6);
+            out.writeByte(7);
+            out.writeShort(2);
+            out.writeByte(1);
+            out.writeUTF(className.replace('.', '/'));
+            out.writeByte(7);
+            out.writeShort(4);
+            out.writeByte(1);
+            out.writeUTF("java/lang/Object");
+            out.writeByte(1);
+            out.writeUTF("v" + version);
+            out.writeShort(0x21);
+            out.writeShort(1);
+            out.writeShort(3);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class StubClassLoader extends ClassLoader {
+        StubClassLoader() {
+            super(null);
+        }
+
+        Class<?> define(String className, byte[] bytes, ProtectionDomain domain) {
+            return defineClass(className, bytes, 0, bytes.length, domain);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A temporary folder the tests write files in, deleted with its content at the
+ * end of each test
+ */
+class TempFolder {
+
+    private final File root;
+
+    TempFolder(String prefix) throws IOException {
+        root = File.createTempFile(prefix, "");
+        root.delete();
+        root.mkdir();
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * Writes a file whose content is its path, creating its folders
+     */
+    File write(String path) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(path.getBytes("UTF-8"));
+        out.close();
+        return file;
+    }
+
+    /**
+     * Writes a file whose content is its path, with a modification time
+     */
+    File write(String path, long lastModified) throws IOException {
+        File file = write(path);
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+    /**
+     * Deletes a file or a folder with its content
+     */
+    void delete(String path) {
+        delete(new File(root, path));
+    }
+
+    /**
+     * Deletes the folder with its content
+     */
+    void delete() {
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
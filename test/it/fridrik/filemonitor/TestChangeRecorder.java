@@ -0,0 +1,114 @@
+package it.fridrik.filemonitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+public class TestChangeRecorder extends TestCase {
+
+    private TempFolder temp;
+    private File root;
+    private File traceFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        temp = new TempFolder("changerecorder");
+        root = temp.getRoot();
+        traceFile = new File(root, "changes.trace");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        temp.delete();
+    }
+
+    public void testRecordAndRead() throws Exception {
+        File classes = new File(root, "classes");
+        File foo = temp.write("classes/a/Foo.class");
+        File bar = temp.write("classes/a/b/Bar.class");
+        File jar = new File(root, "lib/app.jar");
+        writeJar(jar);
+
+        ChangeRecorder recorder = new ChangeRecorder(traceFile);
+        recorder.fileAdded(new FileEvent(classes, foo));
+        recorder.fileModified(new FileEvent(classes, bar));
+        Thread.sleep(20);
+        recorder.fileDeleted(new FileEvent(classes, foo));
+        JarFile jarFile = new JarFile(jar);
+        try {
+            recorder.jarModified(new JarEvent(jarFile, Arrays.asList("a/Baz.class")));
+        } finally {
+            jarFile.close();
+        }
+        recorder.close();
+
+        List<ChangeTrace.Change> changes = ChangeTrace.read(traceFile).getChanges();
+        assertEquals(4, changes.size());
+        assertChange(changes.get(0), ChangeTrace.Type.ADDED, classes, "a/Foo.class");
+        assertEquals(foo.length(), changes.get(0).getSize());
+        assertChange(changes.get(1), ChangeTrace.Type.MODIFIED, classes, "a/b/Bar.class");
+        assertChange(changes.get(2), ChangeTrace.Type.DELETED, classes, "a/Foo.class");
+        assertEquals(-1, changes.get(2).getSize());
+        assertTrue(changes.get(2).getTime() >= changes.get(1).getTime() + 20);
+        assertChange(changes.get(3), ChangeTrace.Type.JAR_MODIFIED,
+                jar.getParentFile(), "app.jar");
+        assertEquals(Arrays.asList("a/Baz.class"), changes.get(3).getEntryNames());
+        assertEquals(Collections.emptyList(), changes.get(0).getEntryNames());
+    }
+
+    public void testTruncatedTrace() throws Exception {
+        File classes = new File(root, "classes");
+        File foo = temp.write("classes/Foo.class");
+        ChangeRecorder recorder = new ChangeRecorder(traceFile);
+        recorder.fileModified(new FileEvent(classes, foo));
+        recorder.scanCompleted();
+        long length = traceFile.length();
+        recorder.fileModified(new FileEvent(classes, foo));
+        recorder.close();
+
+        byte[] bytes = new byte[(int) length + 3];
+        DataInputStream in = new DataInputStream(new FileInputStream(traceFile));
+        in.readFully(bytes);
+        in.close();
+        ChangeTrace trace = ChangeTrace.read(new ByteArrayInputStream(bytes));
+        assertEquals(1, trace.getChanges().size());
+    }
+
+    public void testNotATrace() throws Exception {
+        temp.write(traceFile.getName());
+        try {
+            ChangeTrace.read(traceFile);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertChange(ChangeTrace.Change change,
+        ChangeTrace.Type type, File baseFolder, String path)
+    {
+        assertEquals(type, change.getType());
+        assertEquals(baseFolder, change.getBaseFolder());
+        assertEquals(path, change.getPath());
+    }
+
+    private static void writeJar(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        out.putNextEntry(new JarEntry("a/Baz.class"));
+        out.write(1);
+        out.closeEntry();
+        out.close();
+    }
+}
@@ -0,0 +1,225 @@
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestFileMonitor extends TestCase implements FileAddedListener,
+        FileDeletedListener, FileModifiedListener {
+
+    private TempFolder temp;
+    private File root;
+    private List<String> added;
+    private List<String> deleted;
+    private List<String> modified;
+
+    @Override
+    protected void setUp() throws Exception {
+        temp = new TempFolder("filemonitor");
+        root = temp.getRoot();
+        added = new ArrayList<String>();
+        deleted = new ArrayList<String>();
+        modified = new ArrayList<String>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        temp.delete();
+    }
+
+    public void testAddModifyDelete() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        temp.write("a/b/Bar.class", 1000);
+        temp.write("a/Foo.txt", 1000);
+        FileMonitor monitor = newMonitor();
+
+        monitor.run();
+        assertEquals(2, added.size());
+
+        foo.setLastModified(2000);
+        new File(root, "a/b/Bar.class").delete();
+        monitor.run();
+        assertEquals(Arrays.asList(foo.toString()), modified);
+        assertEquals(0, deleted.size());
+
+        monitor.run();
+        assertEquals(1, deleted.size());
+    }
+
+    public void testDeleteAndRecreateIsModification() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        FileMonitor monitor = newMonitor();
+        monitor.run();
+
+        foo.delete();
+        monitor.run();
+        temp.write("a/Foo.class", 3000);
+        temp.write("a/.Foo.class", 3000);
+        monitor.run();
+        monitor.run();
+        assertEquals(1, added.size());
+        assertEquals(0, deleted.size());
+        assertEquals(Arrays.asList(foo.toString()), modified);
+    }
+
+    public void testRecreatedFolderIsModification() throws Exception {
+        temp.write("a/b/Foo.class", 1000);
+        FileMonitor monitor = newMonitor();
+        monitor.run();
+
+        temp.delete("a");
+        monitor.run();
+        temp.write("a/b/Foo.class", 3000);
+        monitor.run();
+        monitor.run();
+        assertEquals(1, added.size());
+        assertEquals(0, deleted.size());
+        assertEquals(1, modified.size());
+    }
+
+    public void testFileReplacedByFolder() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        FileMonitor monitor = newMonitor();
+        monitor.run();
+
+        foo.delete();
+        temp.write("a/Foo.class/Bar.class", 1000);
+        monitor.run();
+        assertEquals(0, modified.size());
+        monitor.run();
+        monitor.run();
+        assertEquals(Arrays.asList(foo.toString()), deleted);
+        assertEquals(2, added.size());
+    }
+
+    public void testSettleTimeDefersChange() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        FileMonitor monitor = newMonitor();
+        monitor.setSettleTime(60000);
+        monitor.run();
+
+        foo.setLastModified(System.currentTimeMillis());
+        monitor.run();
+        assertEquals(0, modified.size());
+
+        foo.setLastModified(System.currentTimeMillis() - 120000);
+        monitor.run();
+        monitor.run();
+        assertEquals(1, modified.size());
+    }
+
+    public void testDeletedFolder() throws Exception {
+        temp.write("a/b/Bar.class", 1000);
+        temp.write("a/b/c/Baz.class", 1000);
+        FileMonitor monitor = newMonitor();
+        monitor.run();
+
+        temp.delete("a/b");
+        monitor.run();
+        monitor.run();
+        assertEquals(2, deleted.size());
+    }
+
+    public void testSeveralMatchers() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        File jar = temp.write("a/lib/app.jar", 1000);
+        File readme = temp.write("a/README.txt", 1000);
+        FileMonitor monitor = new FileMonitor(Arrays.asList(root.getAbsolutePath()));
+        monitor.addAddedListener(this);
+        final List<String> classes = new ArrayList<String>();
+        monitor.addAddedListener(FileMatcher.forExtension("class"), new FileAddedListener() {
+            public void fileAdded(FileEvent event) {
+                classes.add(event.getSource().toString());
+            }
+        });
+        final List<String> jars = new ArrayList<String>();
+        monitor.addModifiedListener(FileMatcher.forGlob("*.jar"), new FileModifiedListener() {
+            public void fileModified(FileEvent event) {
+                jars.add(event.getSource().toString());
+            }
+        });
+
+        monitor.run();
+        assertEquals(Arrays.asList(foo.toString(), jar.toString()), added);
+        assertEquals(Arrays.asList(foo.toString()), classes);
+
+        jar.setLastModified(2000);
+        monitor.run();
+        assertEquals(Arrays.asList(jar.toString()), jars);
+
+        monitor.addMatcher(FileMatcher.forGlob("READ??.*"));
+        monitor.run();
+        assertEquals(Arrays.asList(foo.toString(), jar.toString(), readme.toString()),
+                added);
+        assertEquals(1, classes.size());
+    }
+
+    public void testScanBudgetResumes() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            temp.write("p" + i + "/Foo.class", 1000);
+        }
+        FileMonitor monitor = newMonitor();
+        monitor.setScanBudget(4);
+
+        int runs = 0;
+        while (added.size() < 10) {
+            monitor.run();
+            runs++;
+        }
+        assertTrue(runs > 1);
+    }
+
+    public void testMaxLatencyOverridesBudget() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            temp.write("p" + i + "/Foo.class", 1000);
+        }
+        FileMonitor monitor = newMonitor();
+        monitor.setScanBudget(1);
+        monitor.setMaxLatency(1);
+
+        monitor.run();
+        Thread.sleep(5);
+        monitor.run();
+        assertEquals(10, added.size());
+    }
+
+    public void testVerifyPeriodSkipsUnchangedFolders() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        new File(root, "a").setLastModified(1000);
+        FileMonitor monitor = newMonitor();
+        monitor.setVerifyPeriod(60000);
+        monitor.run();
+
+        foo.setLastModified(2000);
+        monitor.run();
+        assertEquals(0, modified.size());
+
+        temp.write("a/Bar.class", 1000);
+        monitor.run();
+        assertEquals(2, added.size());
+    }
+
+    public void fileAdded(FileEvent event) {
+        added.add(event.getSource().toString());
+    }
+
+    public void fileDeleted(FileEvent event) {
+        deleted.add(event.getSource().toString());
+    }
+
+    public void fileModified(FileEvent event) {
+        modified.add(event.getSource().toString());
+    }
+
+    private FileMonitor newMonitor() {
+        FileMonitor monitor = new FileMonitor(
+                Arrays.asList(root.getAbsolutePath()), "class");
+        monitor.addAddedListener(this);
+        monitor.addDeletedListener(this);
+        monitor.addModifiedListener(this);
+        return monitor;
+    }
+}
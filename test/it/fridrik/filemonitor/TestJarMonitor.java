@@ -0,0 +1,86 @@
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+public class TestJarMonitor extends TestCase implements JarModifiedListener {
+
+    private File root;
+    private List<String> modified;
+    private int events;
+
+    @Override
+    protected void setUp() throws Exception {
+        root = File.createTempFile("jarmonitor", "");
+        root.delete();
+        root.mkdir();
+        modified = new ArrayList<String>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : root.listFiles()) {
+            file.delete();
+        }
+        root.delete();
+    }
+
+    public void testModifiedEntries() throws Exception {
+        File jar = new File(root, "app.jar");
+        writeJar(jar, 1000);
+        JarMonitor monitor = new JarMonitor(root.getAbsolutePath());
+        monitor.addJarModifiedListener(this);
+        monitor.run();
+        assertEquals(0, modified.size());
+
+        writeJar(jar, 10000, "a/Bar.class");
+        jar.setLastModified(jar.lastModified() + 5000);
+        monitor.run();
+        assertEquals(Arrays.asList("a/Bar.class"), modified);
+    }
+
+    public void testChangesWithinZipTimeResolution() throws Exception {
+        File jar = new File(root, "app.jar");
+        writeJar(jar, 1000);
+        JarMonitor monitor = new JarMonitor(root.getAbsolutePath());
+        monitor.addJarModifiedListener(this);
+        monitor.run();
+
+        writeJar(jar, 1000, "a/Foo.class", "a/Bar.class");
+        jar.setLastModified(jar.lastModified() + 5000);
+        monitor.run();
+        assertEquals(Arrays.asList("a/Foo.class", "a/Bar.class"), modified);
+        assertEquals(1, events);
+    }
+
+    public void jarModified(JarEvent event) {
+        modified.addAll(event.getEntryNames());
+        events++;
+    }
+
+    /**
+     * Writes a jar with two classes, the ones named having a different content
+     * with the specified time
+     */
+    private static void writeJar(File jar, long time, String... names)
+            throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        for (String name : new String[] { "a/Foo.class", "a/Bar.class" }) {
+            boolean changed = Arrays.asList(names).contains(name);
+            JarEntry entry = new JarEntry(name);
+            entry.setTime(changed ? time : 1000);
+            out.putNextEntry(entry);
+            out.write((changed ? name + time : name).getBytes("UTF-8"));
+            out.closeEntry();
+        }
+        out.close();
+    }
+}
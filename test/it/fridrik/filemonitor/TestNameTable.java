@@ -0,0 +1,44 @@
+package it.fridrik.filemonitor;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestNameTable extends TestCase {
+
+    private static final String[] NAMES = { "", "A.class", "B.class", "B.class~",
+            "Foo$1.class", "a.class", "\u00e9t\u00e9.class", "\u4e2d.class",
+            "\ud83d\ude00.class", "\uffff.class" };
+
+    public void testNames() throws Exception {
+        String[] names = NAMES.clone();
+        Arrays.sort(names);
+        NameTable table = NameTable.of(names, names.length);
+        assertEquals(names.length, table.size());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], table.get(i));
+            assertEquals(i, table.indexOf(names[i]));
+        }
+        assertTrue(table.indexOf("C.class") < 0);
+        assertTrue(table.indexOf("A.clas") < 0);
+    }
+
+    public void testOrderIsStringOrder() throws Exception {
+        String[] names = NAMES.clone();
+        Arrays.sort(names);
+        NameTable table = NameTable.of(names, names.length);
+        for (int i = 0; i < names.length; i++) {
+            for (int j = 0; j < names.length; j++) {
+                int expected = Integer.signum(names[i].compareTo(names[j]));
+                assertEquals(expected, Integer.signum(table.compareTo(i, names[j])));
+                assertEquals(expected, Integer.signum(table.compareTo(i, table, j)));
+            }
+        }
+    }
+
+    public void testEmpty() throws Exception {
+        assertSame(NameTable.EMPTY, NameTable.of(NAMES, 0));
+        assertEquals(0, NameTable.EMPTY.size());
+        assertEquals(-1, NameTable.EMPTY.indexOf("A.class"));
+    }
+}
@@ -0,0 +1,99 @@
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestSnapshot extends TestCase implements ChangeSetListener {
+
+    private TempFolder temp;
+    private File root;
+    private FileMonitor monitor;
+    private List<ChangeSet> changeSets;
+
+    @Override
+    protected void setUp() throws Exception {
+        temp = new TempFolder("snapshot");
+        root = temp.getRoot();
+        changeSets = new ArrayList<ChangeSet>();
+        monitor = new FileMonitor(Arrays.asList(root.getAbsolutePath()), "class");
+        monitor.addChangeSetListener(this);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        temp.delete();
+    }
+
+    public void filesChanged(ChangeSet changes, Snapshot snapshot) {
+        changeSets.add(changes);
+    }
+
+    public void testDiff() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        File bar = temp.write("b/Bar.class", 1000);
+        assertSame(Snapshot.EMPTY, monitor.getSnapshot());
+
+        monitor.run();
+        Snapshot first = monitor.getSnapshot();
+        assertEquals(2, first.size());
+        assertTrue(first.contains(foo));
+        assertFalse(first.contains(new File(root, "a/Baz.class")));
+        assertEquals(1, changeSets.size());
+        assertEquals(Arrays.asList(foo, bar), changeSets.get(0).getAdded());
+        assertEquals(root, changeSets.get(0).getBaseFolder(foo));
+
+        monitor.run();
+        assertEquals(1, changeSets.size());
+        assertTrue(monitor.getSnapshot().diff(first).isEmpty());
+
+        foo.setLastModified(2000);
+        File baz = temp.write("a/Baz.class", 1000);
+        monitor.run();
+        ChangeSet changes = monitor.getSnapshot().diff(first);
+        assertEquals(Arrays.asList(baz), changes.getAdded());
+        assertEquals(Arrays.asList(foo), changes.getModified());
+        assertEquals(0, changes.getDeleted().size());
+
+        ChangeSet reverse = first.diff(monitor.getSnapshot());
+        assertEquals(Arrays.asList(baz), reverse.getDeleted());
+        assertEquals(Arrays.asList(foo), reverse.getModified());
+    }
+
+    public void testDeletionAfterConfirmation() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        temp.write("a/b/Bar.class", 1000);
+        monitor.run();
+        Snapshot first = monitor.getSnapshot();
+
+        foo.delete();
+        temp.delete("a/b");
+        monitor.run();
+        assertTrue(monitor.getSnapshot().contains(foo));
+        assertTrue(monitor.getSnapshot().diff(first).isEmpty());
+
+        monitor.run();
+        ChangeSet changes = monitor.getSnapshot().diff(first);
+        assertEquals(Arrays.asList(foo, new File(root, "a/b/Bar.class")),
+                changes.getDeleted());
+        assertEquals(0, monitor.getSnapshot().size());
+    }
+
+    public void testUnchangedFoldersAreShared() throws Exception {
+        temp.write("a/Foo.class", 1000);
+        temp.write("b/Bar.class", 1000);
+        monitor.run();
+        Snapshot.Folder[] first = monitor.getSnapshot().getRoot(root).subfolders;
+
+        temp.write("b/Baz.class", 1000);
+        monitor.run();
+        Snapshot.Folder[] second = monitor.getSnapshot().getRoot(root).subfolders;
+        assertSame(first[0], second[0]);
+        assertTrue(first[1] != second[1]);
+        assertEquals("Bar.class", second[1].fileNames.get(0));
+        assertEquals("Baz.class", second[1].fileNames.get(1));
+    }
+}
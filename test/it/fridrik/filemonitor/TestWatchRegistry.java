@@ -0,0 +1,162 @@
+package it.fridrik.filemonitor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class TestWatchRegistry extends TestCase {
+
+    private static final long PERIOD = 3600000;
+
+    private TempFolder temp;
+    private File root;
+    private WatchRegistry registry;
+
+    @Override
+    protected void setUp() throws Exception {
+        temp = new TempFolder("watchregistry");
+        root = temp.getRoot();
+        registry = WatchRegistry.getInstance();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        temp.delete();
+    }
+
+    public void testSubfolderSharesWatch() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        temp.write("b/Bar.class", 1000);
+        int watches = registry.getWatchCount();
+
+        WatchRegistry.Subscription parent = subscribe(root);
+        List<FileEvent> parentModified = listen(parent);
+        awaitRun(parent);
+
+        File folder = new File(root, "a");
+        WatchRegistry.Subscription child = registry.subscribe(
+                folder.getAbsolutePath(), "class", PERIOD);
+        List<FileEvent> childModified = listen(child);
+        final List<FileEvent> childAdded = new ArrayList<FileEvent>();
+        child.addAddedListener(new FileAddedListener() {
+            public void fileAdded(FileEvent event) {
+                childAdded.add(event);
+            }
+        });
+        assertEquals(watches + 1, registry.getWatchCount());
+        assertEquals(1, childAdded.size());
+        assertEquals(folder, childAdded.get(0).getBaseFolder());
+
+        foo.setLastModified(2000);
+        temp.write("b/Bar.class", 2000);
+        parent.getMonitor().run();
+        assertEquals(2, parentModified.size());
+        assertEquals(1, childModified.size());
+        assertEquals(foo, childModified.get(0).getSource());
+        assertEquals(folder, childModified.get(0).getBaseFolder());
+
+        parent.cancel();
+        assertEquals(watches + 1, registry.getWatchCount());
+        child.cancel();
+        assertEquals(watches, registry.getWatchCount());
+    }
+
+    public void testParentTakesOverSubfolderWatch() throws Exception {
+        File foo = temp.write("a/Foo.class", 1000);
+        int watches = registry.getWatchCount();
+
+        File folder = new File(root, "a");
+        WatchRegistry.Subscription child = subscribe(folder);
+        List<FileEvent> childModified = listen(child);
+        awaitRun(child);
+
+        WatchRegistry.Subscription parent = subscribe(root);
+        List<FileEvent> parentModified = listen(parent);
+        assertEquals(watches + 2, registry.getWatchCount());
+        awaitRun(parent);
+        assertEquals(watches + 1, registry.getWatchCount());
+        assertSame(parent.getMonitor(), child.getMonitor());
+
+        foo.setLastModified(2000);
+        parent.getMonitor().run();
+        assertEquals(1, parentModified.size());
+        assertEquals(1, childModified.size());
+        assertEquals(folder, childModified.get(0).getBaseFolder());
+
+        parent.cancel();
+        assertEquals(watches + 1, registry.getWatchCount());
+        child.cancel();
+        assertEquals(watches, registry.getWatchCount());
+    }
+
+    public void testWatchRunsOnceStarted() throws Exception {
+        temp.write("a/Foo.class", 1000);
+        WatchRegistry.Subscription subscription = subscribe(root);
+        Thread.sleep(100);
+        assertFalse(subscription.getMonitor().hasRun());
+
+        awaitRun(subscription);
+        assertTrue(subscription.getMonitor().hasRun());
+        subscription.cancel();
+    }
+
+    public void testExtensionsShareWatch() throws Exception {
+        temp.write("a/Foo.class", 1000);
+        File jar = temp.write("lib/app.jar", 1000);
+        int watches = registry.getWatchCount();
+
+        WatchRegistry.Subscription classes = subscribe(root);
+        List<FileEvent> classesModified = listen(classes);
+        awaitRun(classes);
+        WatchRegistry.Subscription jars = registry.subscribe(
+                new File(root, "lib").getAbsolutePath(), "jar", PERIOD);
+        List<FileEvent> jarsModified = listen(jars);
+        assertEquals(watches + 1, registry.getWatchCount());
+        assertSame(classes.getMonitor(), jars.getMonitor());
+
+        jars.getMonitor().run();
+        jar.setLastModified(2000);
+        jars.getMonitor().run();
+        assertEquals(0, classesModified.size());
+        assertEquals(1, jarsModified.size());
+        assertEquals(jar, jarsModified.get(0).getSource());
+        assertEquals(new File(root, "lib"), jarsModified.get(0).getBaseFolder());
+
+        classes.cancel();
+        jars.cancel();
+        assertEquals(watches, registry.getWatchCount());
+    }
+
+    private WatchRegistry.Subscription subscribe(File folder) {
+        return registry.subscribe(folder.getAbsolutePath(), "class", PERIOD);
+    }
+
+    private static List<FileEvent> listen(WatchRegistry.Subscription subscription) {
+        final List<FileEvent> modified = new ArrayList<FileEvent>();
+        subscription.addModifiedListener(new FileModifiedListener() {
+            public void fileModified(FileEvent event) {
+                modified.add(event);
+            }
+        });
+        return modified;
+    }
+
+    private static void awaitRun(WatchRegistry.Subscription subscription)
+            throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        subscription.addScanCompletedListener(new ScanCompletedListener() {
+            public void scanCompleted() {
+                latch.countDown();
+            }
+        });
+        boolean hasRun = subscription.getMonitor().hasRun();
+        subscription.start();
+        if (!hasRun) {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+}